@@ -0,0 +1,102 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4.benchmark;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link java.util.Base64} over the same payloads as
+ * {@link Radix4Benchmark} to provide a baseline. The MIME variant is the
+ * counterpart of the line-broken Radix4 codings.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+
+	@Param({ "url", "mime" })
+	public String coding;
+
+	@Param({ "16", "1024", "65536", "1048576", "67108864" })
+	public int size;
+
+	@Param({ "random", "text", "idempotent" })
+	public String data;
+
+	private Base64.Encoder encoder;
+	private Base64.Decoder decoder;
+	private byte[] bytes;
+	private byte[] encodedBytes;
+	private String encodedString;
+
+	@Setup
+	public void setup() {
+		if (coding.equals("url")) {
+			encoder = Base64.getUrlEncoder();
+			decoder = Base64.getUrlDecoder();
+		} else if (coding.equals("mime")) {
+			encoder = Base64.getMimeEncoder();
+			decoder = Base64.getMimeDecoder();
+		} else {
+			throw new IllegalArgumentException("unknown coding: " + coding);
+		}
+		bytes = Payloads.create(data, size);
+		encodedBytes = encoder.encode(bytes);
+		encodedString = encoder.encodeToString(bytes);
+	}
+
+	@Benchmark
+	public byte[] encodeToBytes() {
+		return encoder.encode(bytes);
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return encoder.encodeToString(bytes);
+	}
+
+	@Benchmark
+	public byte[] decodeFromBytes() {
+		return decoder.decode(encodedBytes);
+	}
+
+	@Benchmark
+	public byte[] decodeFromString() {
+		return decoder.decode(encodedString);
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4.benchmark;
+
+import com.tomgibara.radix4.Radix4;
+import com.tomgibara.radix4.Radix4Mapping;
+
+/**
+ * The Radix4 configurations covered by the benchmarks. Each name is a base
+ * format (stream or block) optionally followed by a single variation.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+final class Codings {
+
+	// a mapping that preserves the base64url alphabet in its usual order
+	private static final Radix4Mapping MAPPING = new Radix4Mapping("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray());
+
+	static Radix4 radix4(String name) {
+		int i = name.indexOf('-');
+		String format = i == -1 ? name : name.substring(0, i);
+		String variation = i == -1 ? "" : name.substring(i + 1);
+
+		Radix4 radix4;
+		if (format.equals("stream")) {
+			radix4 = Radix4.stream();
+		} else if (format.equals("block")) {
+			radix4 = Radix4.block();
+		} else {
+			throw new IllegalArgumentException("unknown format: " + format);
+		}
+
+		if (variation.isEmpty()) return radix4;
+		if (variation.equals("pessimistic")) return radix4.configure().setOptimistic(false).use();
+		if (variation.equals("terminated")) return radix4.configure().setTerminated(true).use();
+		if (variation.equals("lines")) return radix4.configure().setLineLength(76).use();
+		if (variation.equals("mapping")) return radix4.configure().setMapping(MAPPING).use();
+		throw new IllegalArgumentException("unknown variation: " + variation);
+	}
+
+	private Codings() { }
+
+}
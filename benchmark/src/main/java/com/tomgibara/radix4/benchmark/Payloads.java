@@ -0,0 +1,67 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible payloads for benchmarking.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+final class Payloads {
+
+	// the characters preserved by the default Radix4 mapping
+	private static final byte[] ALPHABET = "_0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-".getBytes();
+
+	/**
+	 * Creates a payload of the specified kind:
+	 * 
+	 * <dl>
+	 * <dt>random</dt>
+	 * <dd>uniformly random bytes; optimism fails at the first byte</dd>
+	 * <dt>text</dt>
+	 * <dd>ASCII text with spaces; optimism fails at the first space</dd>
+	 * <dt>idempotent</dt>
+	 * <dd>only characters preserved by the encoding; optimism always succeeds</dd>
+	 * </dl>
+	 */
+
+	static byte[] create(String data, int size) {
+		Random r = new Random(size);
+		byte[] bytes = new byte[size];
+		if (data.equals("random")) {
+			r.nextBytes(bytes);
+		} else if (data.equals("text")) {
+			for (int i = 0; i < size; i++) {
+				bytes[i] = r.nextInt(6) == 0 ? (byte) ' ' : ALPHABET[1 + r.nextInt(ALPHABET.length - 2)];
+			}
+		} else if (data.equals("idempotent")) {
+			for (int i = 0; i < size; i++) {
+				bytes[i] = ALPHABET[r.nextInt(ALPHABET.length)];
+			}
+		} else {
+			throw new IllegalArgumentException("unknown data: " + data);
+		}
+		return bytes;
+	}
+
+	private Payloads() { }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tomgibara.radix4.Radix4;
+import com.tomgibara.radix4.Radix4Coding;
+
+/**
+ * Measures the encoding and decoding throughput of Radix4 codings. Run with
+ * <code>-prof gc</code> to also report allocation rates.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Radix4Benchmark {
+
+	@Param({
+		"stream", "stream-pessimistic", "stream-terminated", "stream-lines", "stream-mapping",
+		"block", "block-pessimistic", "block-terminated", "block-lines", "block-mapping",
+	})
+	public String coding;
+
+	@Param({ "16", "1024", "65536", "1048576", "67108864" })
+	public int size;
+
+	@Param({ "random", "text", "idempotent" })
+	public String data;
+
+	private Radix4Coding radix4;
+	private byte[] bytes;
+	private byte[] encodedBytes;
+	private String encodedString;
+	private byte[] buffer;
+
+	@Setup
+	public void setup() {
+		radix4 = Codings.radix4(coding).coding();
+		bytes = Payloads.create(data, size);
+		encodedBytes = radix4.encodeToBytes(bytes);
+		encodedString = radix4.encodeToString(bytes);
+		buffer = new byte[8192];
+	}
+
+	@Benchmark
+	public byte[] encodeToBytes() {
+		return radix4.encodeToBytes(bytes);
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return radix4.encodeToString(bytes);
+	}
+
+	@Benchmark
+	public byte[] decodeFromBytes() {
+		return radix4.decodeFromBytes(encodedBytes);
+	}
+
+	@Benchmark
+	public byte[] decodeFromString() {
+		return radix4.decodeFromString(encodedString);
+	}
+
+	@Benchmark
+	public void outputToStream(Blackhole bh) throws IOException {
+		OutputStream out = radix4.outputToStream(new Sink(bh));
+		out.write(bytes);
+		out.close();
+	}
+
+	@Benchmark
+	public long inputFromStream() throws IOException {
+		InputStream in = radix4.inputFromStream(new ByteArrayInputStream(encodedBytes));
+		long count = 0L;
+		for (int r = in.read(buffer); r != -1; r = in.read(buffer)) {
+			count += r;
+		}
+		return count;
+	}
+
+	// discards output without allowing it to be optimized away
+	private static final class Sink extends OutputStream {
+
+		private final Blackhole bh;
+
+		Sink(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		@Override
+		public void write(int b) {
+			bh.consume(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bh.consume(b);
+			bh.consume(len);
+		}
+
+	}
+
+}
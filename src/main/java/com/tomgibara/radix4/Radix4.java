@@ -18,6 +18,7 @@ package com.tomgibara.radix4;
 
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
@@ -57,6 +58,12 @@ public final class Radix4 implements Serializable {
 	static String charStr(char c) {
 		return String.format("%#02x", (int) c);
 	}
+
+	// ASCII bytes are valid Latin-1, which compact strings can store without widening or decoding
+	@SuppressWarnings("deprecation")
+	static String asciiStr(byte[] bytes) {
+		return new String(bytes, 0);
+	}
 	
 	/**
 	 * The standard Radix4 coding definition for streaming data.
@@ -82,48 +89,66 @@ public final class Radix4 implements Serializable {
 	
 	final Radix4Mapping mapping;
 	final int bufferSize;
+	final int spillThreshold;
 	final int lineLength;
 	final char[] whitespace;
 	final String lineBreak;
 	final boolean streaming;
 	final boolean terminated;
 	final boolean optimistic;
+	final boolean trusted;
 	final char terminator;
-	
-	final byte[] bytes = new byte[256];
+	final Radix4Metrics metrics;
+	
+	// fused encoding table indexed by byte: the encoding char is in the low byte, its radix in the bits above
+	final short[] encodings = new short[256];
+	// fused decoding table indexed by char: the encoded value, or -1 if invalid, -2 if whitespace, -3 if the terminator
+	final byte[] decodings = new byte[256];
+	// the byte unmapped from each combination of radix and encoded value
+	final byte[] unmappings = new byte[256];
 	final byte[] lineBreakBytes;
 	final byte terminatorByte;
 
 	private Radix4Coding coding = null;
+	private Radix4Files files = null;
 	
 	// constructors
 	
 	Radix4(Radix4Config config) {
 		mapping = config.mapping;
 		bufferSize = config.bufferSize;
+		spillThreshold = config.spillThreshold;
 		lineLength = config.lineLength;
 		whitespace = config.whitespace;
 		lineBreak  = config.lineBreak;
 		streaming  = config.streaming;
 		optimistic = config.optimistic;
+		trusted    = config.trusted;
 		terminated = config.terminated;
 		terminator = config.terminator;
+		metrics    = config.metrics;
 		
 		// optimization - line break commonly left untouched - avoid creating many small byte arrays
 		lineBreakBytes = lineBreak.equals("\n") ? DEFAULT_LINE_BREAK_BYTES : lineBreak.getBytes(Radix4.ASCII);
 		terminatorByte = (byte) terminator;
 		
-		// populate bytes
-		Arrays.fill(bytes, (byte) -1);
+		// populate tables
+		for (int i = 0; i < 256; i++) {
+			int b = mapping.encmap[i];
+			encodings[i] = (short) ((b & 0xc0) << 2 | mapping.chars[b & 0x3f]);
+			unmappings[i] = (byte) mapping.decmap[i];
+		}
+		Arrays.fill(decodings, (byte) -1);
 		for (byte i = 0; i < 64; i++) {
-			bytes[mapping.chars[i]] = i;
+			decodings[mapping.chars[i]] = i;
 		}
 		for (char c : whitespace) {
 			// also checks for whitespace collision
 			// bit untidy doing this outside the constructor, but it's more efficient to do it here
-			if (bytes[c] != -1) throw new IllegalArgumentException("Encoding characters contain whitespace: " + charStr(c));
-			bytes[c] = -2;
+			if (decodings[c] != -1) throw new IllegalArgumentException("Encoding characters contain whitespace: " + charStr(c));
+			decodings[c] = -2;
 		}
+		if (terminator < 256 && decodings[terminator] == -1) decodings[terminator] = -3;
 	}
 	
 	// public accessors
@@ -173,6 +198,17 @@ public final class Radix4 implements Serializable {
 		return optimistic;
 	}
 	
+	/**
+	 * Whether encoded data is trusted to be valid, and is therefore decoded
+	 * without validation.
+	 * 
+	 * @return true iff characters are not validated during decoding
+	 */
+
+	public boolean isTrusted() {
+		return trusted;
+	}
+	
 	/**
 	 * The number of characters between line breaks in encoded output or zero to
 	 * indicate that line-breaks should not be output.
@@ -224,6 +260,28 @@ public final class Radix4 implements Serializable {
 		return bufferSize;
 	}
 	
+	/**
+	 * The number of bytes that a block formatted output stream holds in memory
+	 * before spilling to a temporary file.
+	 * 
+	 * @return the spill threshold in bytes, or zero if bytes are never spilled
+	 */
+	
+	public int getSpillThreshold() {
+		return spillThreshold;
+	}
+	
+	/**
+	 * The metrics which record the operations performed by codings of this
+	 * definition.
+	 * 
+	 * @return the metrics, or null if no metrics are recorded
+	 */
+	
+	public Radix4Metrics getMetrics() {
+		return metrics;
+	}
+	
 	// public methods
 
 	/**
@@ -240,6 +298,18 @@ public final class Radix4 implements Serializable {
 		return coding = streaming ? new Radix4Streams(this) : new Radix4Blocks(this);
 	}
 	
+	/**
+	 * Obtain an object that can Radix4 encode and decode whole files according
+	 * to this Radix4 configuration.
+	 * 
+	 * @return a {@link Radix4Files} instance
+	 */
+	
+	public Radix4Files files() {
+		if (files != null) return files;
+		return files = new Radix4Files(this);
+	}
+	
 	/**
 	 * Creates a new mutable Radix4 configuration that can be used to create a
 	 * modified definition. The configuration returned matches will be
@@ -364,22 +434,52 @@ public final class Radix4 implements Serializable {
 	}
 	
 	int lookupByte(int c) {
-		return c >=0 && c < 256 ? bytes[c] : -1;
+		return c >=0 && c < 256 ? decodings[c] : -1;
 	}
 	
 	boolean isWhitespace(int c) {
-		return c < 256 && bytes[c] == -2;
+		return c < 256 && decodings[c] == -2;
+	}
+	
+	// bytes from the position up to the limit of the buffer
+	int computeRadixFreeLength(ByteBuffer bytes) {
+		int position = bytes.position();
+		int limit = bytes.limit();
+		if (bytes.hasArray()) {
+			int offset = bytes.arrayOffset();
+			return computeRadixFreeLength(bytes.array(), offset + position, offset + limit);
+		}
+		for (int i = position; i < limit; i++) {
+			// if the encoding has radix bits we've found a byte with a radix
+			if (encodings[bytes.get(i) & 0xff] > 0xff) return i - position;
+		}
+		return limit - position;
+	}
+	
+	// bytes in the range of the array
+	int computeRadixFreeLength(byte[] bytes, int from, int to) {
+		short[] encodings = this.encodings;
+		int i = from;
+		// a word at a time, with a single test for radix bits
+		for (; to - i >= 8; i += 8) {
+			int e = encodings[bytes[i    ] & 0xff] | encodings[bytes[i + 1] & 0xff]
+				| encodings[bytes[i + 2] & 0xff] | encodings[bytes[i + 3] & 0xff]
+				| encodings[bytes[i + 4] & 0xff] | encodings[bytes[i + 5] & 0xff]
+				| encodings[bytes[i + 6] & 0xff] | encodings[bytes[i + 7] & 0xff];
+			if (e > 0xff) break;
+		}
+		// then byte by byte to locate the radix
+		for (; i < to; i++) {
+			// if the encoding has radix bits we've found a byte with a radix
+			if (encodings[bytes[i] & 0xff] > 0xff) break;
+		}
+		return i - from;
 	}
 	
 	// private helper methods
 	
 	private int computeRadixFreeLength(byte[] bytes) {
-		int[] encmap = mapping.encmap;
-		for (int i = 0; i < bytes.length; i++) {
-			// if the encoded value is not in the 0-63 range we've found a byte with a radix
-			if (encmap[bytes[i] & 0xff] >= 64) return i;
-		}
-		return bytes.length;
+		return computeRadixFreeLength(bytes, 0, bytes.length);
 	}
 
 	// serialization
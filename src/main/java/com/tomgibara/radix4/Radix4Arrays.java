@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Codes between caller supplied arrays without allocating any intermediate
+ * arrays. The array coders support both the block and stream formats, so
+ * these methods are shared by all codings.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+final class Radix4Arrays {
+
+	private Radix4Arrays() { }
+
+	static int encodeInto(Radix4 radix4, byte[] src, int off, int len, byte[] dst, int dstOff) {
+		checkSource(src, off, len, src == null ? 0 : src.length);
+		if (dst == null) throw new IllegalArgumentException("null dst");
+		checkDestination(dstOff, dst.length);
+		Radix4BlockEncoder.ByteArrayEncoder encoder = new Radix4BlockEncoder.ByteArrayEncoder(radix4, dst, dstOff);
+		encoder.encode(ByteBuffer.wrap(src, off, len));
+		return encoder.length;
+	}
+
+	static int encodeInto(Radix4 radix4, byte[] src, int off, int len, char[] dst, int dstOff) {
+		checkSource(src, off, len, src == null ? 0 : src.length);
+		if (dst == null) throw new IllegalArgumentException("null dst");
+		checkDestination(dstOff, dst.length);
+		Radix4BlockEncoder.CharArrayEncoder encoder = new Radix4BlockEncoder.CharArrayEncoder(radix4, dst, dstOff);
+		encoder.encode(ByteBuffer.wrap(src, off, len));
+		return encoder.length;
+	}
+
+	static int decodeInto(Radix4 radix4, byte[] src, int off, int len, byte[] dst, int dstOff) {
+		checkSource(src, off, len, src == null ? 0 : src.length);
+		if (dst == null) throw new IllegalArgumentException("null dst");
+		checkDestination(dstOff, dst.length);
+		return new Radix4BlockDecoder.BytesDecoder(radix4, src, off, len, true, null).decodeInto(dst, dstOff);
+	}
+
+	static int decodeInto(Radix4 radix4, char[] src, int off, int len, byte[] dst, int dstOff) {
+		checkSource(src, off, len, src == null ? 0 : src.length);
+		if (dst == null) throw new IllegalArgumentException("null dst");
+		checkDestination(dstOff, dst.length);
+		return new Radix4BlockDecoder.CharsDecoder(radix4, CharBuffer.wrap(src, off, len), true).decodeInto(dst, dstOff);
+	}
+
+	private static void checkSource(Object src, int off, int len, int length) {
+		if (src == null) throw new IllegalArgumentException("null src");
+		if (off < 0) throw new IllegalArgumentException("negative off");
+		if (len < 0) throw new IllegalArgumentException("negative len");
+		if (len > length - off) throw new IllegalArgumentException("range exceeds src");
+	}
+
+	private static void checkDestination(int dstOff, int length) {
+		if (dstOff < 0) throw new IllegalArgumentException("negative dstOff");
+		if (dstOff > length) throw new IllegalArgumentException("dstOff exceeds dst");
+	}
+
+}
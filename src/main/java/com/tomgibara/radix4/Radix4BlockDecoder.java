@@ -16,29 +16,211 @@
  */
 package com.tomgibara.radix4;
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 abstract class Radix4BlockDecoder<T> {
 
+	// the index of the first character in a range that isn't an encoding character, or the end of the range
+	static int skipEncoded(byte[] decodings, byte[] bytes, int i, int end) {
+		// a word at a time, with a single test for whitespace, terminators and invalid chars
+		for (; end - i >= 8; i += 8) {
+			int d = decodings[bytes[i    ] & 0xff] | decodings[bytes[i + 1] & 0xff]
+				| decodings[bytes[i + 2] & 0xff] | decodings[bytes[i + 3] & 0xff]
+				| decodings[bytes[i + 4] & 0xff] | decodings[bytes[i + 5] & 0xff]
+				| decodings[bytes[i + 6] & 0xff] | decodings[bytes[i + 7] & 0xff];
+			if (d < 0) break;
+		}
+		for (; i < end; i++) {
+			if (decodings[bytes[i] & 0xff] < 0) break;
+		}
+		return i;
+	}
+
+	// counts the characters that are not whitespace in a range
+	private static int countNonWhitespace(Radix4 radix4, byte[] bytes, int from, int to) {
+		byte[] decodings = radix4.decodings;
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			int k = skipEncoded(decodings, bytes, i, to);
+			count += k - i;
+			if (k == to) break;
+			if (decodings[bytes[k] & 0xff] != -2) count++;
+			i = k;
+		}
+		return count;
+	}
+
+	// copies the characters that are not whitespace in a range, returning the index following the last copied
+	private static int copyNonWhitespace(Radix4 radix4, byte[] bytes, int from, int to, byte[] bs, int j) {
+		byte[] decodings = radix4.decodings;
+		for (int i = from; i < to; i++) {
+			// runs of encoding characters are copied whole
+			int k = skipEncoded(decodings, bytes, i, to);
+			System.arraycopy(bytes, i, bs, j, k - i);
+			j += k - i;
+			if (k == to) break;
+			byte b = bytes[k];
+			if (decodings[b & 0xff] != -2) bs[j++] = b;
+			i = k;
+		}
+		return j;
+	}
+
+	private static int countNonWhitespace(Radix4 radix4, CharSequence chars, int from, int to) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (!radix4.isWhitespace(chars.charAt(i))) count++;
+		}
+		return count;
+	}
+
+	// splits a length into ranges, the boundaries of which are returned
+	private static int[] split(int length, Executor executor) {
+		int chunks = executor == null ? 1 : Radix4Parallel.chunkCount(length);
+		int[] bounds = new int[chunks + 1];
+		for (int c = 1; c <= chunks; c++) {
+			bounds[c] = (int) ((long) length * c / chunks);
+		}
+		return bounds;
+	}
+
 	private final Radix4 radix4;
-	private final byte[] bytes;
-	private final int[] decmap;
+	private final byte[] decodings;
+	private final byte[] unmappings;
+	// whether characters are decoded without being validated
+	private final boolean trusted;
+	// non-null if decoding should be performed concurrently
+	final Executor executor;
+	// when metrics are recorded, the time at which decoding started
+	private long start;
+	// the number of whitespace characters stripped from the input
+	int whitespace = 0;
 	
-	Radix4BlockDecoder(Radix4 radix4) {
+	Radix4BlockDecoder(Radix4 radix4, Executor executor) {
 		this.radix4 = radix4;
-		bytes = radix4.bytes;
-		decmap = radix4.mapping.decmap;
+		this.executor = executor;
+		decodings = radix4.decodings;
+		unmappings = radix4.unmappings;
+		trusted = radix4.trusted;
+		start = radix4.metrics == null ? 0L : System.nanoTime();
 	}
 	
+	// the index of the first radix encoded character
+	private int firstRadix;
+	// the number of terminators separating radix free characters
+	private int termLength;
+	// the index following the last encoded character
+	private int end;
+	// the number of decoded bytes
+	private int size;
+
 	public byte[] decode() {
+		checkedLayout();
+		byte[] out = new byte[size];
+		checkedDecode(out, 0);
+		return out;
+	}
+
+	// decodes into a supplied array from an offset, returning the number of bytes decoded
+	int decodeInto(byte[] out, int off) {
+		checkedLayout();
+		if (size > out.length - off) throw new IllegalArgumentException("insufficient space");
+		checkedDecode(out, off);
+		return size;
+	}
+
+	// decodes into the supplied array if it is large enough, otherwise into a new array;
+	// the decoder may then be used again if its input has changed, size() is the number of bytes decoded
+	byte[] decodeReusing(byte[] out) {
+		if (radix4.metrics != null) start = System.nanoTime();
+		checkedLayout();
+		if (out == null || out.length < size) out = new byte[size];
+		checkedDecode(out, 0);
+		return out;
+	}
+
+	// the number of bytes decoded
+	int size() {
+		return size;
+	}
+
+	// as layout, but records invalid input with any metrics
+	private void checkedLayout() {
+		try {
+			layout();
+		} catch (IllegalArgumentException e) {
+			if (radix4.metrics != null) radix4.metrics.rejected();
+			throw e;
+		}
+	}
+
+	// as decode, but records the decoding with any metrics
+	private void checkedDecode(byte[] out, int off) {
+		Radix4Metrics metrics = radix4.metrics;
+		if (metrics == null) {
+			decode(out, off);
+			return;
+		}
+		try {
+			decode(out, off);
+		} catch (IllegalArgumentException e) {
+			metrics.rejected();
+			throw e;
+		}
+		metrics.decoded(length() + whitespace, whitespace, size, System.nanoTime() - start);
+	}
+
+	// whether the input is a valid encoding, checked without decoding it
+	boolean isValid() {
+		try {
+			layout();
+			// a stream decoder requires a separate terminator to end the radix free bytes
+			if (radix4.streaming && radix4.terminated && radix4.optimistic && termLength == 0) return false;
+			// every character other than the terminators must be an encoding character
+			return isValid(0, firstRadix) && isValid(firstRadix + termLength, end);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private boolean isValid(int from, int to) {
+		byte[] decodings = this.decodings;
+		byte[] in = array();
+		if (in == null) {
+			for (int i = from; i < to; i++) {
+				if (decodings[readByte(i) & 0xff] < 0) return false;
+			}
+			return true;
+		}
+		int i = arrayOffset() + from;
+		int end = arrayOffset() + to;
+		// a word at a time, with a single test for invalid characters
+		for (; end - i >= 8; i += 8) {
+			int d = decodings[in[i    ] & 0xff] | decodings[in[i + 1] & 0xff]
+				| decodings[in[i + 2] & 0xff] | decodings[in[i + 3] & 0xff]
+				| decodings[in[i + 4] & 0xff] | decodings[in[i + 5] & 0xff]
+				| decodings[in[i + 6] & 0xff] | decodings[in[i + 7] & 0xff];
+			if (d < 0) return false;
+		}
+		int d = 0;
+		for (; i < end; i++) {
+			d |= decodings[in[i] & 0xff];
+		}
+		return d >= 0;
+	}
+
+	private void layout() {
 		int length = length();
 		if (radix4.terminated) {
-			if (readByte(length - 1) != radix4.terminatorByte) {
+			if (length == 0 || readByte(length - 1) != radix4.terminatorByte) {
 				throw new IllegalArgumentException("missing terminator");
 			} else {
 				length--;
 			}
 		}
-		int firstRadix;
-		int termLength;
 		if (radix4.optimistic) {
 			firstRadix = length;
 			termLength = 0;
@@ -56,9 +238,9 @@ abstract class Radix4BlockDecoder<T> {
 		
 		// successful optimism with redundant marker
 		if (firstRadix == length - 1) length = firstRadix; 
+		end = length;
 
 		// compute the size of the output
-		int size;
 		if (firstRadix == length) {
 			size = length;
 		} else {
@@ -66,35 +248,186 @@ abstract class Radix4BlockDecoder<T> {
 			if ((len & 3) == 1) throw new IllegalArgumentException("invalid length");
 			size = firstRadix + len * 3 / 4;
 		}
-		byte[] out = new byte[size];
+	}
 
-		// transfer radix free bytes
-		for (int i = 0; i < firstRadix; i++) {
-			int b = radix4.lookupByte(readByte(i) & 0xff) & 0xff;
-			if (b == -1) throw new IllegalArgumentException("invalid character at index " + i);
-			out[i] = (byte) decmap[b];
+	// a streaming coding is decoded from the stream format, which differs only in the radixed section
+	private void decode(final byte[] out, final int off) {
+		final int start = firstRadix + termLength;
+		final int offset = size + termLength; // start + len == (firstRadix + termLength) + (size - firstRadix) == size + termLength
+		final int len = size - firstRadix;
+		if (executor == null) {
+			decodeRadixFree(out, off, 0, firstRadix);
+			decodeRadixed(out, off + firstRadix, start, offset, 0, len);
+			return;
 		}
-		
-		// transfer radix encoded bytes
-		if (firstRadix < size) {
-			int start = firstRadix + termLength;
-			int len = size - firstRadix;
-			int index = 2;
-			int offset = size + termLength; // start + len == (firstRadix + termLength) + (size - firstRadix) == size + termLength
-			int radix = 0;
-			for (int i = 0; i < len; i++) {
-				if (++index == 3) {
-					radix = radix4.lookupByte(readByte(offset) & 0xff);
-					if (radix < 0) throw new IllegalArgumentException("invalid character at index " + offset);
-					index = 0;
-					offset ++;
+
+		// every section is independent of the others, so it can be split
+		// into chunks the positions of which are known in advance
+		List<Runnable> chunks = new ArrayList<Runnable>();
+		int[] bounds = split(firstRadix, executor);
+		for (int c = 1; c < bounds.length; c++) {
+			final int from = bounds[c - 1];
+			final int to = bounds[c];
+			if (from < to) chunks.add(new Runnable() {
+				@Override
+				public void run() {
+					decodeRadixFree(out, off, from, to);
+				}
+			});
+		}
+		// ranges must be aligned to triples so that each radix is read by one chunk
+		bounds = split((len + 2) / 3, executor);
+		for (int c = 1; c < bounds.length; c++) {
+			final int from = bounds[c - 1] * 3;
+			final int to = Math.min(bounds[c] * 3, len);
+			if (from < to) chunks.add(new Runnable() {
+				@Override
+				public void run() {
+					decodeRadixed(out, off + firstRadix, start, offset, from, to);
 				}
-				int b = bytes[ readByte(start + i) & 0xff ] & 0x3f | radix << ((index + 1) << 1) & 0xc0;
-				out[firstRadix + i] = (byte) decmap[b];
+			});
+		}
+		Radix4Parallel.run(executor, chunks);
+	}
+
+	// transfer radix free bytes
+	void decodeRadixFree(byte[] out, int off, int from, int to) {
+		byte[] in = array();
+		if (in != null) {
+			decodeRadixFree(in, arrayOffset(), out, off, from, to);
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			int b = decodings[readByte(i) & 0xff];
+			if (b < 0 && !trusted) throw new IllegalArgumentException("invalid character at index " + i);
+			out[off + i] = unmappings[b & 0x3f];
+		}
+	}
+
+	// transfer radix encoded bytes, from and to are relative to the first radixed byte
+	void decodeRadixed(byte[] out, int off, int start, int offset, int from, int to) {
+		byte[] in = array();
+		if (radix4.streaming) {
+			start += from / 3 * 4;
+			if (in == null) {
+				decodeGroups(out, off, start, from, to);
+			} else {
+				decodeGroups(in, arrayOffset(), out, off, start, from, to);
+			}
+		} else {
+			start += from;
+			offset += from / 3;
+			if (in == null) {
+				decodeTriples(out, off, start, offset, from, to);
+			} else {
+				decodeTriples(in, arrayOffset(), out, off, start, offset, from, to);
 			}
+		}
+	}
 
+	private void decodeTriples(byte[] out, int off, int start, int offset, int from, int to) {
+		int index = 2;
+		int radix = 0;
+		for (int i = from; i < to; i++) {
+			if (++index == 3) {
+				radix = decodings[readByte(offset) & 0xff];
+				if (radix < 0 && !trusted) throw new IllegalArgumentException("invalid character at index " + offset);
+				index = 0;
+				offset ++;
+			}
+			int c = decodings[readByte(start) & 0xff];
+			if (c < 0 && !trusted) throw new IllegalArgumentException("invalid character at index " + start);
+			start ++;
+			out[off + i] = unmappings[ c & 0x3f | radix << ((index + 1) << 1) & 0xc0 ];
 		}
-		return out;
+	}
+
+	// each radix precedes the characters of its triple
+	private void decodeGroups(byte[] out, int off, int start, int from, int to) {
+		int index = 2;
+		int radix = 0;
+		for (int i = from; i < to; i++) {
+			if (++index == 3) {
+				radix = decodings[readByte(start) & 0xff];
+				if (radix < 0 && !trusted) throw new IllegalArgumentException("invalid character at index " + start);
+				index = 0;
+				start ++;
+			}
+			int c = decodings[readByte(start) & 0xff];
+			if (c < 0 && !trusted) throw new IllegalArgumentException("invalid character at index " + start);
+			start ++;
+			out[off + i] = unmappings[ c & 0x3f | radix << ((index + 1) << 1) & 0xc0 ];
+		}
+	}
+
+	// kernels that decode directly from an array, indices are relative to its offset
+	// any invalid group is left to the methods above, so that the error identifies the character
+
+	private void decodeRadixFree(byte[] in, int inOff, byte[] out, int off, int from, int to) {
+		byte[] decodings = this.decodings;
+		byte[] unmappings = this.unmappings;
+		if (trusted) {
+			for (int i = from; i < to; i++) {
+				out[off + i] = unmappings[decodings[in[inOff + i] & 0xff] & 0x3f];
+			}
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			int b = decodings[in[inOff + i] & 0xff];
+			if (b < 0) throw new IllegalArgumentException("invalid character at index " + i);
+			out[off + i] = unmappings[b];
+		}
+	}
+
+	private void decodeTriples(byte[] in, int inOff, byte[] out, int off, int start, int offset, int from, int to) {
+		byte[] decodings = this.decodings;
+		byte[] unmappings = this.unmappings;
+		int i = from;
+		int p = inOff + start;
+		int r = inOff + offset;
+		// whole triples, validated with a single test
+		for (; to - i >= 3; i += 3, p += 3, r++) {
+			int radix = decodings[in[r    ] & 0xff];
+			int c0    = decodings[in[p    ] & 0xff];
+			int c1    = decodings[in[p + 1] & 0xff];
+			int c2    = decodings[in[p + 2] & 0xff];
+			if ((radix | c0 | c1 | c2) < 0 && !trusted) break;
+			out[off + i    ] = unmappings[ c0 & 0x3f | radix << 2 & 0xc0 ];
+			out[off + i + 1] = unmappings[ c1 & 0x3f | radix << 4 & 0xc0 ];
+			out[off + i + 2] = unmappings[ c2 & 0x3f | radix << 6 & 0xc0 ];
+		}
+		// then any partial or invalid triple
+		if (i < to) decodeTriples(out, off, p - inOff, r - inOff, i, to);
+	}
+
+	private void decodeGroups(byte[] in, int inOff, byte[] out, int off, int start, int from, int to) {
+		byte[] decodings = this.decodings;
+		byte[] unmappings = this.unmappings;
+		int i = from;
+		int p = inOff + start;
+		// whole groups, validated with a single test
+		for (; to - i >= 3; i += 3, p += 4) {
+			int radix = decodings[in[p    ] & 0xff];
+			int c0    = decodings[in[p + 1] & 0xff];
+			int c1    = decodings[in[p + 2] & 0xff];
+			int c2    = decodings[in[p + 3] & 0xff];
+			if ((radix | c0 | c1 | c2) < 0 && !trusted) break;
+			out[off + i    ] = unmappings[ c0 & 0x3f | radix << 2 & 0xc0 ];
+			out[off + i + 1] = unmappings[ c1 & 0x3f | radix << 4 & 0xc0 ];
+			out[off + i + 2] = unmappings[ c2 & 0x3f | radix << 6 & 0xc0 ];
+		}
+		// then any partial or invalid group
+		if (i < to) decodeGroups(out, off, p - inOff, i, to);
+	}
+
+	// the array that backs the input, or null if there is none
+	byte[] array() {
+		return null;
+	}
+
+	// the index in the array at which the input starts
+	int arrayOffset() {
+		return 0;
 	}
 
 	abstract int length();
@@ -104,34 +437,91 @@ abstract class Radix4BlockDecoder<T> {
 	final static class BytesDecoder extends Radix4BlockDecoder<byte[]> {
 
 		private final byte[] bytes;
+		private final int offset;
 		private final int length;
 		
 		BytesDecoder(Radix4 radix4, byte[] bytes, boolean stripWhitespace) {
-			super(radix4);
+			this(radix4, bytes, 0, bytes.length, stripWhitespace, null);
+		}
+
+		BytesDecoder(Radix4 radix4, byte[] bytes, boolean stripWhitespace, Executor executor) {
+			this(radix4, bytes, 0, bytes.length, stripWhitespace, executor);
+		}
+
+		// decodes the specified range of the array
+		BytesDecoder(Radix4 radix4, byte[] bytes, int off, int len, boolean stripWhitespace, Executor executor) {
+			super(radix4, executor);
 			byte[] bs = null;
 			int j = 0;
-			int len = bytes.length;
 			if (stripWhitespace) {
-				for (int i = 0; i < len; i++) {
-					byte b = bytes[i];
-					if (radix4.isWhitespace(b & 0xff)) {
-						if (bs == null) {
-							bs = new byte[len];
-							System.arraycopy(bytes, 0, bs, 0, i);
-						}
-					} else {
-						if (bs != null) bs[j] = b;
-						j++;
+				if (executor != null) {
+					bs = stripWhitespace(radix4, bytes, off, len);
+					if (bs != null) j = bs.length;
+				} else {
+					// nothing is copied unless there is whitespace to strip
+					int end = off + len;
+					int i = off;
+					byte[] decodings = radix4.decodings;
+					while (true) {
+						i = skipEncoded(decodings, bytes, i, end);
+						if (i == end || decodings[bytes[i] & 0xff] == -2) break;
+						i++;
+					}
+					if (i < end) {
+						bs = new byte[len];
+						System.arraycopy(bytes, off, bs, 0, i - off);
+						j = copyNonWhitespace(radix4, bytes, i, end, bs, i - off);
 					}
 				}
 			}
 			if (bs == null) {
 				this.bytes = bytes;
+				offset = off;
 				length = len;
 			} else {
 				this.bytes = bs;
+				offset = 0;
 				length = j;
+				whitespace = len - j;
+			}
+		}
+
+		// strips whitespace concurrently, returning null if there is none
+		private byte[] stripWhitespace(final Radix4 radix4, final byte[] bytes, final int off, int len) {
+			final int[] bounds = split(len, executor);
+			final int chunks = bounds.length - 1;
+			// first count the retained characters in each range
+			final int[] counts = new int[chunks];
+			List<Runnable> tasks = new ArrayList<Runnable>(chunks);
+			for (int c = 0; c < chunks; c++) {
+				final int chunk = c;
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						counts[chunk] = countNonWhitespace(radix4, bytes, off + bounds[chunk], off + bounds[chunk + 1]);
+					}
+				});
 			}
+			Radix4Parallel.run(executor, tasks);
+			final int[] offsets = new int[chunks + 1];
+			for (int c = 0; c < chunks; c++) {
+				offsets[c + 1] = offsets[c] + counts[c];
+			}
+			if (offsets[chunks] == len) return null;
+			// then copy each range to its known offset
+			final byte[] bs = new byte[offsets[chunks]];
+			tasks.clear();
+			for (int c = 0; c < chunks; c++) {
+				final int chunk = c;
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						copyNonWhitespace(radix4, bytes, off + bounds[chunk], off + bounds[chunk + 1], bs, offsets[chunk]);
+					}
+				});
+			}
+			Radix4Parallel.run(executor, tasks);
+			return bs;
 		}
 
 		@Override
@@ -141,7 +531,17 @@ abstract class Radix4BlockDecoder<T> {
 		
 		@Override
 		byte readByte(int i) {
-			return bytes[i];
+			return bytes[offset + i];
+		}
+		
+		@Override
+		byte[] array() {
+			return bytes;
+		}
+		
+		@Override
+		int arrayOffset() {
+			return offset;
 		}
 		
 	}
@@ -151,22 +551,75 @@ abstract class Radix4BlockDecoder<T> {
 		private final CharSequence chars;
 		
 		CharsDecoder(Radix4 radix4, CharSequence chars, boolean stripWhitespace) {
-			super(radix4);
-			StringBuilder sb = null;
+			this(radix4, chars, stripWhitespace, null);
+		}
+
+		CharsDecoder(Radix4 radix4, CharSequence chars, boolean stripWhitespace, Executor executor) {
+			super(radix4, executor);
+			CharSequence sb = null;
 			if (stripWhitespace) {
-				int len = chars.length();
-				for (int i = 0; i < len; i++) {
-					char c = chars.charAt(i);
-					if (radix4.isWhitespace(c)) {
-						if (sb == null) {
-							sb = new StringBuilder(chars.subSequence(0, i));
+				if (executor != null) {
+					sb = stripWhitespace(radix4, chars);
+				} else {
+					StringBuilder builder = null;
+					int len = chars.length();
+					for (int i = 0; i < len; i++) {
+						char c = chars.charAt(i);
+						if (radix4.isWhitespace(c)) {
+							if (builder == null) {
+								builder = new StringBuilder(chars.subSequence(0, i));
+							}
+						} else if (builder != null) {
+							builder.append(c);
 						}
-					} else if (sb != null) {
-						sb.append(c);
 					}
+					sb = builder;
 				}
 			}
 			this.chars = sb == null ? chars : sb;
+			if (sb != null) whitespace = chars.length() - sb.length();
+		}
+
+		// strips whitespace concurrently, returning null if there is none
+		private CharSequence stripWhitespace(final Radix4 radix4, final CharSequence chars) {
+			final int[] bounds = split(chars.length(), executor);
+			final int chunks = bounds.length - 1;
+			// first count the retained characters in each range
+			final int[] counts = new int[chunks];
+			List<Runnable> tasks = new ArrayList<Runnable>(chunks);
+			for (int c = 0; c < chunks; c++) {
+				final int chunk = c;
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						counts[chunk] = countNonWhitespace(radix4, chars, bounds[chunk], bounds[chunk + 1]);
+					}
+				});
+			}
+			Radix4Parallel.run(executor, tasks);
+			final int[] offsets = new int[chunks + 1];
+			for (int c = 0; c < chunks; c++) {
+				offsets[c + 1] = offsets[c] + counts[c];
+			}
+			if (offsets[chunks] == chars.length()) return null;
+			// then copy each range to its known offset
+			final char[] cs = new char[offsets[chunks]];
+			tasks.clear();
+			for (int c = 0; c < chunks; c++) {
+				final int chunk = c;
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						int j = offsets[chunk];
+						for (int i = bounds[chunk]; i < bounds[chunk + 1]; i++) {
+							char c = chars.charAt(i);
+							if (!radix4.isWhitespace(c)) cs[j++] = c;
+						}
+					}
+				});
+			}
+			Radix4Parallel.run(executor, tasks);
+			return CharBuffer.wrap(cs);
 		}
 
 		@Override
@@ -177,8 +630,8 @@ abstract class Radix4BlockDecoder<T> {
 		@Override
 		byte readByte(int i) {
 			char c = chars.charAt(i);
-			if (c > 127) throw new IllegalArgumentException("invalid character at index " + i);
-			return (byte) c;
+			// other chars are narrowed to a byte which is never an encoding character, so they remain invalid
+			return c > 127 ? (byte) 0xff : (byte) c;
 		}
 		
 		
@@ -16,141 +16,511 @@
  */
 package com.tomgibara.radix4;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 abstract class Radix4BlockEncoder<T> {
 
+	// the number of leading bytes checked before radix free bytes are encoded as they are scanned
+	private static final int SCAN_WINDOW = 64;
+
 	final Radix4 radix4;
 	private final byte[] chars;
-	private final int[] encmap;;
+	private final short[] encodings;
 	private final boolean breakLines;
 	final int lineBreakLength;
 	private final int lineLength;
-	private final int fullLineLength;
 	
 	Radix4BlockEncoder(Radix4 radix4) {
 		this.radix4 = radix4;
 		chars = radix4.mapping.chars;
-		encmap = radix4.mapping.encmap;
+		encodings = radix4.encodings;
 		breakLines = radix4.lineLength != Radix4Config.NO_LINE_BREAK;
 		lineBreakLength = radix4.lineBreakBytes.length;
 		lineLength = radix4.lineLength;
-		fullLineLength = lineLength + lineBreakLength;
 	}
 	
 	T encode(byte[] bytes) {
-		long longLength = radix4.computeEncodedLength(bytes);
-		if (longLength > Integer.MAX_VALUE) throw new IllegalArgumentException("bytes too long");
-		int length = (int) longLength;
-		allocate(length);
-
-		// index at which to read the next byte
-		int i = 0;
-		// position at which to write next byte
-		int position = 0;
-
-		// first deal with any optimistic bytes
-		if (radix4.optimistic) {
-			while (i < bytes.length) {
-				int b = bytes[i];
-				// map the byte
-				b = encmap[b & 0xff];
-				int c = b & 0x3f;
-				if (c == b) {
-					// still radix free
-					position = writeWithBreaks(position, chars[ c ]);
-					i++;
-				} else {
-					// no longer radix free
-					break;
-				}
+		return encode(ByteBuffer.wrap(bytes));
+	}
+	
+	// encodes the bytes from the position up to the limit of the buffer
+	T encode(ByteBuffer bytes) {
+		return encode(bytes, null);
+	}
+
+	// as above, but encodes large buffers concurrently if an executor is supplied;
+	// a streaming coding produces the stream format, which differs only in the radixed section
+	T encode(ByteBuffer bytes, Executor executor) {
+		Radix4Metrics metrics = radix4.metrics;
+		long start = metrics == null ? 0L : System.nanoTime();
+		int base = bytes.position();
+		int count = bytes.limit() - base;
+		int radixFreeLength;
+		int length;
+		// only an encoder that allocates its own output can enlarge it once characters have been written
+		BytesEncoder resizable = executor == null && this instanceof BytesEncoder ? (BytesEncoder) this : null;
+		// whether the radix free bytes were encoded while they were scanned
+		boolean scanned = resizable != null && isScannable(bytes, base, count);
+		if (scanned) {
+			// allocate as if every byte were radix free, and enlarge the output if one isn't
+			length = encodedLength(count, count);
+			allocate(length);
+			radixFreeLength = scanRadixFree(bytes, base, base + count, 0) - base;
+			if (radixFreeLength < count) {
+				length = encodedLength(count, radixFreeLength);
+				resizable.reallocate(length, position(radixFreeLength));
 			}
-			// indicate the end of radix free bytes unless it's unnecessary
-			if (i < bytes.length || radix4.terminated) {
-				position = writeWithBreaks(position, radix4.terminatorByte);
+		} else {
+			radixFreeLength = radix4.optimistic ? radix4.computeRadixFreeLength(bytes) : 0;
+			length = encodedLength(count, radixFreeLength);
+			allocate(length);
+		}
+
+		// whether a terminator follows the radix free bytes
+		boolean separated = radix4.optimistic && (radixFreeLength < count || radix4.terminated);
+		// number of bytes that require radices
+		int radixedLength = count - radixFreeLength;
+		// the character indices (ignoring line breaks) at which each section starts
+		int dataStart = separated ? radixFreeLength + 1 : radixFreeLength;
+		int radixStart = dataStart + radixedLength;
+		int radixEnd = radixStart + (radixedLength + 2) / 3;
+
+		if (executor == null) {
+			if (!scanned) encodeRadixFree(bytes, base, base + radixFreeLength, 0);
+			if (radixedLength > 0) {
+				encodeRadixed(bytes, base + radixFreeLength, base + count, dataStart, radixStart);
 			}
+		} else {
+			encodeConcurrently(bytes, executor, base, count, radixFreeLength, dataStart, radixStart);
+		}
+
+		// indicate the end of radix free bytes unless it's unnecessary
+		if (separated) writeChar(radixFreeLength, radix4.terminatorByte);
+		// finally terminate if necessary
+		if (radix4.terminated) {
+			// written after the last char so that any line break preceding it is output
+			writeChar(radixEnd, radix4.terminatorByte);
+		}
+
+		if (metrics != null) {
+			int total = radix4.terminated ? radixEnd + 1 : radixEnd;
+			long lineBreaks = breakLines && total > 0 ? (total - 1) / lineLength : 0L;
+			metrics.encoded(count, radixFreeLength, length, lineBreaks, System.nanoTime() - start);
+		}
+		return generate();
+	}
+
+	private int encodedLength(int count, int radixFreeLength) {
+		long length = radix4.computeEncodedLength(count, radixFreeLength);
+		if (length > Integer.MAX_VALUE) throw new IllegalArgumentException("bytes too long");
+		return (int) length;
+	}
+
+	// whether the radix free bytes can be found while they are encoded, rather than beforehand;
+	// this is only attempted if the input doesn't start with a radix
+	private boolean isScannable(ByteBuffer bytes, int base, int count) {
+		if (!radix4.optimistic || count <= SCAN_WINDOW || !bytes.hasArray()) return false;
+		int from = bytes.arrayOffset() + base;
+		return radix4.computeRadixFreeLength(bytes.array(), from, from + SCAN_WINDOW) == SCAN_WINDOW;
+	}
+
+	// every section is independent of the others, so it can be split into chunks
+	// the indices of which are known in advance
+	private void encodeConcurrently(ByteBuffer bytes, Executor executor, int base, int count, int radixFreeLength, int dataStart, int radixStart) {
+		int radixedLength = count - radixFreeLength;
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int radixFreeChunks = Radix4Parallel.chunkCount(radixFreeLength);
+		for (int c = 0; c < radixFreeChunks; c++) {
+			int from = (int) ((long) radixFreeLength * c / radixFreeChunks);
+			int to = (int) ((long) radixFreeLength * (c + 1) / radixFreeChunks);
+			if (from < to) chunks.add(new Chunk(bytes, base + from, base + to, from, -1));
+		}
+		int triples = (radixedLength + 2) / 3;
+		int radixedChunks = Radix4Parallel.chunkCount(radixedLength);
+		for (int c = 0; c < radixedChunks; c++) {
+			// chunks must be aligned to triples so that each radix is written by one chunk
+			int from = (int) ((long) triples * c / radixedChunks) * 3;
+			int to = Math.min((int) ((long) triples * (c + 1) / radixedChunks) * 3, radixedLength);
+			if (from < to) {
+				// in the stream format, each triple is a group of four characters starting with the radix
+				int index = radix4.streaming ? dataStart + from / 3 * 4 : dataStart + from;
+				chunks.add(new Chunk(bytes, base + radixFreeLength + from, base + radixFreeLength + to, index, radixStart + from / 3));
+			}
+		}
+		Radix4Parallel.run(executor, chunks);
+	}
+
+	// line breaks are written by whichever method writes the character that follows them,
+	// so characters are identified by their index, ignoring line breaks, until they are written
+
+	// the position at which the indexed character is written
+	private int position(int index) {
+		return breakLines ? index + index / lineLength * lineBreakLength : index;
+	}
+
+	// the number of characters, starting with the indexed one, that fit on its line
+	private int room(int index) {
+		return lineLength - index % lineLength;
+	}
+
+	// writes the line break that precedes the indexed character, if there is one
+	private void breakBefore(int index) {
+		if (index > 0 && index % lineLength == 0) writeLineBreak(position(index) - lineBreakLength);
+	}
+
+	// writes a single character together with any preceding line break
+	private void writeChar(int index, byte b) {
+		if (breakLines) breakBefore(index);
+		writeByte(position(index), b);
+	}
+
+	// whether a range can be encoded directly between arrays
+	private boolean direct(ByteBuffer bytes) {
+		return bytes.hasArray() && array() != null;
+	}
+
+	private void encodeRadixFree(ByteBuffer bytes, int from, int to, int index) {
+		if (!breakLines) {
+			writeRadixFree(bytes, from, to, index);
+			return;
+		}
+		// each segment fills the remainder of a line
+		while (from < to) {
+			breakBefore(index);
+			int n = Math.min(to - from, room(index));
+			writeRadixFree(bytes, from, from + n, position(index));
+			from += n;
+			index += n;
+		}
+	}
+
+	// encodes bytes until one with a radix is found, returning its position in the buffer
+	private int scanRadixFree(ByteBuffer bytes, int from, int to, int index) {
+		byte[] in = bytes.array();
+		int offset = bytes.arrayOffset();
+		byte[] out = array();
+		int o = arrayOffset();
+		if (!breakLines) {
+			return scanRadixFree(in, offset + from, offset + to, out, o + index) - offset;
+		}
+		// each segment fills the remainder of a line
+		while (from < to) {
+			breakBefore(index);
+			int n = Math.min(to - from, room(index));
+			int end = scanRadixFree(in, offset + from, offset + from + n, out, o + position(index)) - offset;
+			if (end < from + n) return end;
+			from = end;
+			index += n;
 		}
+		return from;
+	}
 
-		// then deal with the rest
-		{
-			// offset to radices
-			int offset = position + bytes.length - i;
-			// adjust for line breaks
+	// the radix index locates the radices and is ignored for the stream format
+	private void encodeRadixed(ByteBuffer bytes, int from, int to, int index, int radixIndex) {
+		if (radix4.streaming) {
+			if (breakLines) {
+				encodeGroups(bytes, from, to, index);
+			} else {
+				writeGroups(bytes, from, to, index);
+			}
+		} else {
 			if (breakLines) {
-				int bytesSoFar = i;
-				if (radix4.optimistic) bytesSoFar ++;
-				offset -= radix4.extraLineBreakLength(bytesSoFar); // don't double count
-				offset += radix4.extraLineBreakLength(offset);
+				encodeTriples(bytes, from, to, index, radixIndex);
+			} else {
+				writeTriples(bytes, from, to, index, radixIndex);
 			}
+		}
+	}
 
-			// index within the triple: 0, 1 or 2
-			int index = 0;
-			// accumulates the radices of byte triples
-			int radix = 0;
-			while (i < bytes.length) {
-				int b = bytes[i++];
-				// map the byte
-				b = encmap[b & 0xff];
-				int c = b & 0x3f;
-				position = writeWithBreaks(position, chars[ c ]);
-				radix |= (b & 0xc0) >> ((++index) << 1);
-				// write a complete radix
-				if (index == 3) {
-					offset = writeWithBreaks(offset, chars[ radix ]);
-					index = 0;
-					radix = 0;
+	// each segment contains the triples for which neither data nor radix crosses a line break
+	private void encodeTriples(ByteBuffer bytes, int from, int to, int index, int radixIndex) {
+		while (from < to) {
+			breakBefore(index);
+			breakBefore(radixIndex);
+			int n = Math.min(to - from, room(index));
+			if (from + n < to) n = n / 3 * 3;
+			n = Math.min(n, room(radixIndex) * 3);
+			if (n > 0) {
+				writeTriples(bytes, from, from + n, position(index), position(radixIndex));
+				index += n;
+				radixIndex += (n + 2) / 3;
+				from += n;
+			} else {
+				// the data of this triple is split by a line break
+				int end = Math.min(from + 3, to);
+				int radix = 0;
+				for (int shift = 4; from < end; from++, shift -= 2) {
+					int e = encodings[bytes.get(from) & 0xff];
+					writeChar(index++, (byte) e);
+					radix |= (e >> 8) << shift;
 				}
+				writeByte(position(radixIndex++), chars[ radix ]);
 			}
-			// output any remaining radix part
-			if (index != 0) {
-				offset = writeWithBreaks(offset, chars[ radix ]);
+		}
+	}
+
+	// each segment contains the groups that don't cross a line break
+	private void encodeGroups(ByteBuffer bytes, int from, int to, int index) {
+		while (from < to) {
+			breakBefore(index);
+			int room = room(index);
+			int n = Math.min(to - from, room / 4 * 3);
+			// a final partial group may still fit
+			if (n == 0 && to - from < room) n = to - from;
+			if (n > 0) {
+				writeGroups(bytes, from, from + n, position(index));
+				index += n / 3 * 4;
+				if (n % 3 != 0) index += n % 3 + 1;
+				from += n;
+			} else {
+				// this group is split by a line break
+				int end = Math.min(from + 3, to);
+				int radix = 0;
+				for (int i = from, shift = 4; i < end; i++, shift -= 2) {
+					radix |= (encodings[bytes.get(i) & 0xff] >> 8) << shift;
+				}
+				writeChar(index++, chars[ radix ]);
+				for (; from < end; from++) {
+					writeChar(index++, (byte) encodings[bytes.get(from) & 0xff]);
+				}
 			}
 		}
+	}
 
-		// finally terminate if necessary
-		if (radix4.terminated) {
-			writeWithBreaks(length - 1, radix4.terminatorByte);
+	// methods that write contiguous characters from a position, without line breaks
+
+	private void writeRadixFree(ByteBuffer bytes, int from, int to, int position) {
+		if (direct(bytes)) {
+			encodeRadixFree(bytes.array(), bytes.arrayOffset() + from, bytes.arrayOffset() + to, array(), arrayOffset() + position);
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			writeByte(position++, (byte) encodings[bytes.get(i) & 0xff]);
 		}
+	}
 
-		return generate();
+	private void writeTriples(ByteBuffer bytes, int from, int to, int position, int offset) {
+		if (direct(bytes)) {
+			int i = bytes.arrayOffset();
+			int o = arrayOffset();
+			encodeTriples(bytes.array(), i + from, i + to, array(), o + position, o + offset);
+			return;
+		}
+		// index within the triple: 0, 1 or 2
+		int index = 0;
+		// accumulates the radices of byte triples
+		int radix = 0;
+		for (int i = from; i < to; i++) {
+			int e = encodings[bytes.get(i) & 0xff];
+			writeByte(position++, (byte) e);
+			radix |= (e >> 8) << (6 - ((++index) << 1));
+			// write a complete radix
+			if (index == 3) {
+				writeByte(offset++, chars[ radix ]);
+				index = 0;
+				radix = 0;
+			}
+		}
+		// output any remaining radix part
+		if (index != 0) {
+			writeByte(offset, chars[ radix ]);
+		}
 	}
 	
-	private int writeWithBreaks(int i, byte b) {
-//		writeByte(i++, b);
-//		//TODO this is inefficient
-//		if (breakLines && i > 0 && i % fullLineLength == 0) {
-//			writeLineBreak(i);
-//			i += lineBreakLength;
-//		}
-//		return i;
-		//TODO this is inefficient
-		if (breakLines && i % fullLineLength == lineLength) {
-			writeLineBreak(i);
-			i += lineBreakLength;
-		}
-		writeByte(i++, b);
+	// encodes the radixed bytes in the stream format, each radix preceding its triple
+	private void writeGroups(ByteBuffer bytes, int from, int to, int position) {
+		if (direct(bytes)) {
+			int i = bytes.arrayOffset();
+			encodeGroups(bytes.array(), i + from, i + to, array(), arrayOffset() + position);
+			return;
+		}
+		int i = from;
+		for (; to - i >= 3; i += 3) {
+			int e0 = encodings[bytes.get(i    ) & 0xff];
+			int e1 = encodings[bytes.get(i + 1) & 0xff];
+			int e2 = encodings[bytes.get(i + 2) & 0xff];
+			writeByte(position++, chars[ (e0 >> 8) << 4 | (e1 >> 8) << 2 | e2 >> 8 ]);
+			writeByte(position++, (byte) e0);
+			writeByte(position++, (byte) e1);
+			writeByte(position++, (byte) e2);
+		}
+		// output any partial group
+		if (i < to) {
+			int e0 = encodings[bytes.get(i) & 0xff];
+			int e1 = i + 1 < to ? encodings[bytes.get(i + 1) & 0xff] : -1;
+			int radix = (e0 >> 8) << 4;
+			if (e1 != -1) radix |= (e1 >> 8) << 2;
+			writeByte(position++, chars[ radix ]);
+			writeByte(position++, (byte) e0);
+			if (e1 != -1) writeByte(position, (byte) e1);
+		}
+	}
+
+	// kernels that encode directly between arrays, without line breaks;
+	// these are also used to encode files a chunk at a time
+
+	void encodeRadixFree(byte[] in, int i, int end, byte[] out, int p) {
+		short[] encodings = this.encodings;
+		for (; i < end; i++) {
+			out[p++] = (byte) encodings[in[i] & 0xff];
+		}
+	}
+
+	// as above, but stops at the first byte with a radix, returning its index
+	private int scanRadixFree(byte[] in, int i, int end, byte[] out, int p) {
+		short[] encodings = this.encodings;
+		for (; i < end; i++) {
+			int e = encodings[in[i] & 0xff];
+			if (e > 0xff) break;
+			out[p++] = (byte) e;
+		}
 		return i;
 	}
-	
+
+	void encodeTriples(byte[] in, int i, int end, byte[] out, int p, int r) {
+		short[] encodings = this.encodings;
+		byte[] chars = this.chars;
+		// whole triples, each radix assembled at once
+		for (; end - i >= 3; i += 3, p += 3) {
+			int e0 = encodings[in[i    ] & 0xff];
+			int e1 = encodings[in[i + 1] & 0xff];
+			int e2 = encodings[in[i + 2] & 0xff];
+			out[p    ] = (byte) e0;
+			out[p + 1] = (byte) e1;
+			out[p + 2] = (byte) e2;
+			out[r++] = chars[ (e0 >> 8) << 4 | (e1 >> 8) << 2 | e2 >> 8 ];
+		}
+		// then any partial triple
+		if (i < end) {
+			int e0 = encodings[in[i] & 0xff];
+			int radix = (e0 >> 8) << 4;
+			out[p] = (byte) e0;
+			if (i + 1 < end) {
+				int e1 = encodings[in[i + 1] & 0xff];
+				radix |= (e1 >> 8) << 2;
+				out[p + 1] = (byte) e1;
+			}
+			out[r] = chars[ radix ];
+		}
+	}
+
+	private void encodeGroups(byte[] in, int i, int end, byte[] out, int p) {
+		short[] encodings = this.encodings;
+		byte[] chars = this.chars;
+		// whole groups, each radix assembled at once
+		for (; end - i >= 3; i += 3, p += 4) {
+			int e0 = encodings[in[i    ] & 0xff];
+			int e1 = encodings[in[i + 1] & 0xff];
+			int e2 = encodings[in[i + 2] & 0xff];
+			out[p    ] = chars[ (e0 >> 8) << 4 | (e1 >> 8) << 2 | e2 >> 8 ];
+			out[p + 1] = (byte) e0;
+			out[p + 2] = (byte) e1;
+			out[p + 3] = (byte) e2;
+		}
+		// then any partial group
+		if (i < end) {
+			int e0 = encodings[in[i] & 0xff];
+			int radix = (e0 >> 8) << 4;
+			out[p + 1] = (byte) e0;
+			if (i + 1 < end) {
+				int e1 = encodings[in[i + 1] & 0xff];
+				radix |= (e1 >> 8) << 2;
+				out[p + 2] = (byte) e1;
+			}
+			out[p] = chars[ radix ];
+		}
+	}
+
 	abstract void allocate(int length);
 
+	// the array that backs the output, or null if there is none
+	byte[] array() {
+		return null;
+	}
+
+	// the index in the array at which the output starts
+	int arrayOffset() {
+		return 0;
+	}
+
 	abstract void writeByte(int i, byte b);
 
 	abstract void writeLineBreak(int i);
 	
 	abstract T generate();
 	
-	abstract void dump();
+	// the encoded characters, for debugging
+	abstract String dump();
 	
+	// a range of bytes that can be encoded independently of any other
+	private final class Chunk implements Runnable {
+
+		private final ByteBuffer bytes;
+		private final int from;
+		private final int to;
+		private final int index;
+		// negative for radix free bytes
+		private final int radixIndex;
+
+		Chunk(ByteBuffer bytes, int from, int to, int index, int radixIndex) {
+			this.bytes = bytes;
+			this.from = from;
+			this.to = to;
+			this.index = index;
+			this.radixIndex = radixIndex;
+		}
+
+		@Override
+		public void run() {
+			if (radixIndex < 0) {
+				encodeRadixFree(bytes, from, to, index);
+			} else {
+				encodeRadixed(bytes, from, to, index, radixIndex);
+			}
+		}
+
+	}
+
 	final static class BytesEncoder extends Radix4BlockEncoder<byte[]> {
 		
 		private byte[] bytes = null;
+		// whether the output array is kept for subsequent encodings
+		private final boolean reusing;
+		// the number of bytes encoded
+		int length;
 		
 		BytesEncoder(Radix4 radix4) {
+			this(radix4, false);
+		}
+
+		// a reusing encoder writes every encoding into the same array while it is large enough,
+		// so the generated array may be longer than the encoding
+		BytesEncoder(Radix4 radix4, boolean reusing) {
 			super(radix4);
+			this.reusing = reusing;
 		}
 
 		@Override
 		void allocate(int length) {
-			bytes = new byte[length];
+			if (!reusing || bytes == null || bytes.length < length) bytes = new byte[length];
+			this.length = length;
+		}
+		
+		// enlarges the output, preserving the characters written before a position
+		void reallocate(int length, int preserved) {
+			this.length = length;
+			if (reusing && bytes.length >= length) return;
+			byte[] bs = new byte[length];
+			System.arraycopy(bytes, 0, bs, 0, preserved);
+			bytes = bs;
+		}
+		
+		@Override
+		byte[] array() {
+			return bytes;
 		}
 		
 		@Override
@@ -169,50 +539,162 @@ abstract class Radix4BlockEncoder<T> {
 		}
 		
 		@Override
-		void dump() {
-			System.out.println(" ** DUMP ** ");
-			if (bytes.length > 0) System.out.println((bytes[0]));
-			System.out.println(new String(bytes, Radix4.ASCII));
+		String dump() {
+			return new String(bytes, Radix4.ASCII);
 		}
 		
 	}
 
-	final static class CharsEncoder extends Radix4BlockEncoder<String> {
+	final static class BufferEncoder extends Radix4BlockEncoder<ByteBuffer> {
 		
-		private StringBuilder chars = null;
+		private final ByteBuffer bytes;
+		// the number of bytes encoded
+		private int length;
 		
-		CharsEncoder(Radix4 radix4) {
+		// encodes into a supplied buffer from index zero
+		BufferEncoder(Radix4 radix4, ByteBuffer bytes) {
 			super(radix4);
+			this.bytes = bytes;
 		}
 
 		@Override
 		void allocate(int length) {
-			chars = new StringBuilder(length);
-			chars.setLength(length);
+			if (length > bytes.capacity()) throw new IllegalArgumentException("insufficient capacity");
+			this.length = length;
+		}
+		
+		@Override
+		byte[] array() {
+			return bytes.hasArray() ? bytes.array() : null;
+		}
+		
+		@Override
+		int arrayOffset() {
+			return bytes.hasArray() ? bytes.arrayOffset() : 0;
+		}
+		
+		@Override
+		void writeByte(int i, byte b) {
+			bytes.put(i, b);
 		}
 		
 		@Override
 		void writeLineBreak(int i) {
-			byte[] bytes = radix4.lineBreakBytes;
+			byte[] lineBreak = radix4.lineBreakBytes;
 			for (int j = 0; j < lineBreakLength; j++) {
-				chars.setCharAt(i + j, (char) bytes[j]);
+				bytes.put(i + j, lineBreak[j]);
 			}
 		}
 		
+		@Override
+		ByteBuffer generate() {
+			return bytes;
+		}
+		
+		@Override
+		String dump() {
+			byte[] bs = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bs[i] = bytes.get(i);
+			}
+			return new String(bs, Radix4.ASCII);
+		}
+		
+	}
+
+	final static class ByteArrayEncoder extends Radix4BlockEncoder<Void> {
+		
+		private final byte[] bytes;
+		private final int offset;
+		// the number of bytes encoded
+		int length;
+		
+		// encodes into a supplied array from an offset
+		ByteArrayEncoder(Radix4 radix4, byte[] bytes, int offset) {
+			super(radix4);
+			this.bytes = bytes;
+			this.offset = offset;
+		}
+
+		@Override
+		void allocate(int length) {
+			if (length > bytes.length - offset) throw new IllegalArgumentException("insufficient space");
+			this.length = length;
+		}
+		
+		@Override
+		byte[] array() {
+			return bytes;
+		}
+		
+		@Override
+		int arrayOffset() {
+			return offset;
+		}
+		
+		@Override
+		void writeByte(int i, byte b) {
+			bytes[offset + i] = b;
+		}
+		
+		@Override
+		void writeLineBreak(int i) {
+			System.arraycopy(radix4.lineBreakBytes, 0, bytes, offset + i, lineBreakLength);
+		}
+		
+		@Override
+		Void generate() {
+			return null;
+		}
+		
+		@Override
+		String dump() {
+			return new String(bytes, offset, length, Radix4.ASCII);
+		}
+		
+	}
+
+	final static class CharArrayEncoder extends Radix4BlockEncoder<Void> {
+		
+		private final char[] chars;
+		private final int offset;
+		// the number of chars encoded
+		int length;
+		
+		// encodes into a supplied array from an offset
+		CharArrayEncoder(Radix4 radix4, char[] chars, int offset) {
+			super(radix4);
+			this.chars = chars;
+			this.offset = offset;
+		}
+
+		@Override
+		void allocate(int length) {
+			if (length > chars.length - offset) throw new IllegalArgumentException("insufficient space");
+			this.length = length;
+		}
+		
 		@Override
 		void writeByte(int i, byte b) {
-			chars.setCharAt(i, (char) (b & 0xff));
+			chars[offset + i] = (char) (b & 0xff);
+		}
+		
+		@Override
+		void writeLineBreak(int i) {
+			byte[] bytes = radix4.lineBreakBytes;
+			for (int j = 0; j < lineBreakLength; j++) {
+				chars[offset + i + j] = (char) bytes[j];
+			}
 		}
 		
 		@Override
-		String generate() {
-			return chars.toString();
+		Void generate() {
+			return null;
 		}
 		
 		@Override
-		void dump() {
-			System.out.println(" ** DUMP ** ");
-			System.out.println(chars);
+		String dump() {
+			return new String(chars, offset, length);
 		}
 		
 	}
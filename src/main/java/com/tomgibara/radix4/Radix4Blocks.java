@@ -16,13 +16,24 @@
  */
 package com.tomgibara.radix4;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * Provides methods for binary-to-text and text-to-binary using Radix4 encoding.
@@ -37,6 +48,9 @@ import java.io.Writer;
 
 class Radix4Blocks implements Radix4Coding {
 
+	// the size of buffers used to spill bytes, a multiple of three so that triples are not split
+	private static final int SPILL_BUFFER_SIZE = 8193;
+
 	private final Radix4 radix4;
 	
 	Radix4Blocks(Radix4 radix4) {
@@ -53,8 +67,8 @@ class Radix4Blocks implements Radix4Coding {
 		if (out == null) throw new IllegalArgumentException("null out");
 		return new BlockOutputStream() {
 			@Override
-			void flush(byte[] bytes) throws IOException {
-				out.write( new Radix4BlockEncoder.BytesEncoder(radix4).encode(bytes) );
+			void output(byte[] encoded, int off, int len) throws IOException {
+				out.write(encoded, off, len);
 			}
 		};
 	}
@@ -64,8 +78,13 @@ class Radix4Blocks implements Radix4Coding {
 		if (builder == null) throw new IllegalArgumentException("null builder");
 		return new BlockOutputStream() {
 			@Override
-			void flush(byte[] bytes) throws IOException {
-				builder.append( new Radix4BlockEncoder.CharsEncoder(radix4).encode(bytes) );
+			void output(byte[] encoded, int off, int len) throws IOException {
+				builder.ensureCapacity(builder.length() + len);
+				for (int end = off + len; off < end; ) {
+					int length = widen(encoded, off, end);
+					builder.append(chars, 0, length);
+					off += length;
+				}
 			}
 		};
 	}
@@ -75,8 +94,12 @@ class Radix4Blocks implements Radix4Coding {
 		if (writer == null) throw new IllegalArgumentException("null writer");
 		return new BlockOutputStream() {
 			@Override
-			void flush(byte[] bytes) throws IOException {
-				writer.write( new Radix4BlockEncoder.CharsEncoder(radix4).encode(bytes) );
+			void output(byte[] encoded, int off, int len) throws IOException {
+				for (int end = off + len; off < end; ) {
+					int length = widen(encoded, off, end);
+					writer.write(chars, 0, length);
+					off += length;
+				}
 			}
 		};
 	}
@@ -85,43 +108,99 @@ class Radix4Blocks implements Radix4Coding {
 	public InputStream inputFromStream(final InputStream in) {
 		if (in == null) throw new IllegalArgumentException("null in");
 		return new BlockInputStream() {
+			
+			private final byte[] buffer = new byte[radix4.bufferSize];
+			// the range of buffered characters that have yet to be processed
+			private int position = 0;
+			private int limit = 0;
+			// whether we can read ahead of a terminator and then return the surplus
+			private final boolean marking = radix4.terminated && in.markSupported();
+			// otherwise any surplus is pushed back to a source that supports it
+			private final PushbackInputStream pushback = radix4.terminated && !marking && in instanceof PushbackInputStream ? (PushbackInputStream) in : null;
+			// accumulates the radixed characters, without whitespace
+			private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			// whether the first terminator has been read
+			private boolean separated = false;
+			// whether the end of the input was reached before any terminator
+			private boolean ended = false;
+			
+			@Override
+			int readPrefix(byte[] b, int off, int len) throws IOException {
+				if (separated || ended) return -1;
+				int term = radix4.terminator;
+				int count = 0;
+				while (count < len) {
+					if (position == limit) {
+						// bytes are returned as they arrive, rather than waiting for more input
+						if (count > 0) return count;
+						if (!fill()) {
+							if (radix4.terminated) throw new IOException("Unexpected end of stream");
+							ended = true;
+							return -1;
+						}
+					}
+					while (position < limit && count < len) {
+						int c = buffer[position++] & 0xff;
+						if (radix4.isWhitespace(c)) continue; // ignore whitespace
+						if (c == term) {
+							// the terminator and the characters that follow it belong to the radixed bytes
+							separated = true;
+							out.write(c);
+							return count == 0 ? -1 : count;
+						}
+						int v = radix4.lookupByte(c);
+						if (v < 0) throw new IOException("invalid character");
+						b[off + count++] = radix4.unmappings[v];
+					}
+				}
+				return count;
+			}
+			
 			@Override
 			byte[] slurp() throws IOException {
-				ByteArrayOutputStream out = new ByteArrayOutputStream();
-				byte[] bytes;
+				// the end of input was reached without any radixed bytes
+				if (radix4.optimistic && !separated) return new byte[0];
 				if (radix4.terminated) {
-					boolean seekingFirstRadix = radix4.optimistic;
+					// a separating terminator has already been read if the coding is optimistic
 					int term = radix4.terminator;
-					while (true) {
-						int b = in.read();
-						if (b == -1) throw new IOException("Unexpected end of stream");
-						if (radix4.isWhitespace(b)) continue; // ignore whitespace
-						out.write(b);
-						if (b == term) {
-							if (seekingFirstRadix) {
-								seekingFirstRadix = false;
-							} else {
-								break;
-							}
+					int c;
+					do {
+						if (position == limit && !fill()) throw new IOException("Unexpected end of stream");
+						c = buffer[position++] & 0xff;
+						if (!radix4.isWhitespace(c)) out.write(c);
+					} while (c != term);
+					// anything after the terminator belongs to whoever reads the stream next
+					if (position < limit) {
+						if (marking) {
+							in.reset();
+							skipFully(in, position);
+						} else if (pushback != null) {
+							pushback.unread(buffer, position, limit - position);
 						}
 					}
 				} else {
-					byte[] buffer = new byte[radix4.bufferSize];
-					while (true) {
-						int r = in.read(buffer);
-						if (r == -1) break;
-						r = stripWhitespace(buffer, r);
-						out.write(buffer, 0, r);
-					}
+					do {
+						out.write(buffer, position, stripWhitespace(buffer, position, limit) - position);
+					} while (fill());
 				}
-				bytes = out.toByteArray();
-				return new Radix4BlockDecoder.BytesDecoder(radix4, bytes, false).decode();
+				return new Radix4BlockDecoder.BytesDecoder(radix4, out.toByteArray(), false).decode();
 			}
 			
-			private int stripWhitespace(byte[] buffer, int length) {
-				int j = 0;
-				for (int i = 0; i < length; i++) {
-						if (!radix4.isWhitespace(buffer[i] & 0xff)) {
+			// refills the buffer, returning false at the end of the stream
+			private boolean fill() throws IOException {
+				if (marking) in.mark(buffer.length);
+				int r = in.read(buffer);
+				if (r == -1) return false;
+				position = 0;
+				limit = r;
+				return true;
+			}
+			
+			// compacts the non-whitespace characters to the start of a range, returning the end of them
+			private int stripWhitespace(byte[] buffer, int from, int to) {
+				int j = from;
+				for (int i = from; i < to; i++) {
+					if (!radix4.isWhitespace(buffer[i] & 0xff)) {
 						if (i != j) buffer[j] = buffer[i];
 						j++;
 					}
@@ -135,40 +214,98 @@ class Radix4Blocks implements Radix4Coding {
 	public InputStream inputFromReader(final Reader reader) {
 		if (reader == null) throw new IllegalArgumentException("null reader");
 		return new BlockInputStream() {
+			
+			private final char[] buffer = new char[radix4.bufferSize];
+			// the range of buffered characters that have yet to be processed
+			private int position = 0;
+			private int limit = 0;
+			// whether we can read ahead of a terminator and then return the surplus
+			private final boolean marking = radix4.terminated && reader.markSupported();
+			// otherwise any surplus is pushed back to a source that supports it
+			private final PushbackReader pushback = radix4.terminated && !marking && reader instanceof PushbackReader ? (PushbackReader) reader : null;
+			// accumulates the radixed characters, without whitespace
+			private final StringBuilder sb = new StringBuilder();
+			// whether the first terminator has been read
+			private boolean separated = false;
+			// whether the end of the input was reached before any terminator
+			private boolean ended = false;
+			
+			@Override
+			int readPrefix(byte[] b, int off, int len) throws IOException {
+				if (separated || ended) return -1;
+				int term = radix4.terminator;
+				int count = 0;
+				while (count < len) {
+					if (position == limit) {
+						// bytes are returned as they arrive, rather than waiting for more input
+						if (count > 0) return count;
+						if (!fill()) {
+							if (radix4.terminated) throw new IOException("Unexpected end of stream");
+							ended = true;
+							return -1;
+						}
+					}
+					while (position < limit && count < len) {
+						char c = buffer[position++];
+						if (radix4.isWhitespace(c)) continue; // ignore whitespace
+						if (c == term) {
+							// the terminator and the characters that follow it belong to the radixed bytes
+							separated = true;
+							sb.append(c);
+							return count == 0 ? -1 : count;
+						}
+						int v = radix4.lookupByte(c);
+						if (v < 0) throw new IOException("invalid character");
+						b[off + count++] = radix4.unmappings[v];
+					}
+				}
+				return count;
+			}
+			
 			@Override
 			byte[] slurp() throws IOException {
-				StringBuilder sb = new StringBuilder();
+				// the end of input was reached without any radixed bytes
+				if (radix4.optimistic && !separated) return new byte[0];
 				if (radix4.terminated) {
-					boolean seekingFirstRadix = radix4.optimistic;
+					// a separating terminator has already been read if the coding is optimistic
 					int term = radix4.terminator;
-					while (true) {
-						int c = reader.read();
-						if (c == -1) throw new IOException("Unexpected end of stream");
-						if (radix4.isWhitespace(c)) continue; // ignore whitespace
-						sb.append(c);
-						if (c == term) {
-							if (seekingFirstRadix) {
-								seekingFirstRadix = false;
-							} else {
-								break;
-							}
+					char c;
+					do {
+						if (position == limit && !fill()) throw new IOException("Unexpected end of stream");
+						c = buffer[position++];
+						if (!radix4.isWhitespace(c)) sb.append(c);
+					} while (c != term);
+					// anything after the terminator belongs to whoever reads the reader next
+					if (position < limit) {
+						if (marking) {
+							reader.reset();
+							skipFully(reader, position);
+						} else if (pushback != null) {
+							pushback.unread(buffer, position, limit - position);
 						}
 					}
 				} else {
-					char[] buffer = new char[radix4.bufferSize];
-					while (true) {
-						int r = reader.read(buffer);
-						if (r == -1) break;
-						r = stripWhitespace(buffer, r);
-						sb.append(buffer, 0, r);
-					}
+					do {
+						sb.append(buffer, position, stripWhitespace(buffer, position, limit) - position);
+					} while (fill());
 				}
 				return new Radix4BlockDecoder.CharsDecoder(radix4, sb, false).decode();
 			}
 			
-			private int stripWhitespace(char[] buffer, int length) {
-				int j = 0;
-				for (int i = 0; i < length; i++) {
+			// refills the buffer, returning false at the end of the stream
+			private boolean fill() throws IOException {
+				if (marking) reader.mark(buffer.length);
+				int r = reader.read(buffer);
+				if (r == -1) return false;
+				position = 0;
+				limit = r;
+				return true;
+			}
+			
+			// compacts the non-whitespace characters to the start of a range, returning the end of them
+			private int stripWhitespace(char[] buffer, int from, int to) {
+				int j = from;
+				for (int i = from; i < to; i++) {
 					if (!radix4.isWhitespace(buffer[i])) {
 						if (i != j) buffer[j] = buffer[i];
 						j++;
@@ -185,10 +322,50 @@ class Radix4Blocks implements Radix4Coding {
 		return new ByteArrayInputStream( new Radix4BlockDecoder.CharsDecoder(radix4, chars, true).decode() );
 	}
 	
+	@Override
+	public GatheringByteChannel outputToChannel(WritableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("null channel");
+		return new Radix4Channels.EncodingChannel(newEncoder(), channel);
+	}
+	
+	@Override
+	public ReadableByteChannel inputFromChannel(ReadableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("null channel");
+		return new Radix4Channels.DecodingChannel(newDecoder(), channel);
+	}
+	
+	@Override
+	public Radix4RecordReader recordsFromStream(InputStream in) {
+		if (in == null) throw new IllegalArgumentException("null in");
+		return new Radix4RecordReader(this, in, null);
+	}
+	
+	@Override
+	public Radix4RecordReader recordsFromChannel(ReadableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("null channel");
+		return new Radix4RecordReader(this, null, channel);
+	}
+	
+	@Override
+	public Radix4Encoder newEncoder() {
+		return new Radix4Encoder.Block(radix4);
+	}
+	
+	@Override
+	public Radix4Decoder newDecoder() {
+		return new Radix4Decoder.Block(radix4);
+	}
+	
+	@Override
+	public Radix4Coding parallel(Executor executor) {
+		if (executor == null) throw new IllegalArgumentException("null executor");
+		return new Radix4Parallel(this, executor);
+	}
+	
 	@Override
 	public String encodeToString(byte[] bytes) {
 		if (bytes == null) throw new IllegalArgumentException("null bytes");
-		return new Radix4BlockEncoder.CharsEncoder(radix4).encode(bytes);
+		return Radix4.asciiStr(new Radix4BlockEncoder.BytesEncoder(radix4).encode(bytes));
 	}
 
 	@Override
@@ -209,33 +386,385 @@ class Radix4Blocks implements Radix4Coding {
 		return new Radix4BlockDecoder.BytesDecoder(radix4, bytes, true).decode();
 	}
 
-	//TODO could replace with a more efficient implementation that avoids byte[] copy
-	private abstract class BlockOutputStream extends ByteArrayOutputStream {
+	@Override
+	public boolean isValid(CharSequence chars) {
+		if (chars == null) throw new IllegalArgumentException("null chars");
+		return new Radix4BlockDecoder.CharsDecoder(radix4, chars, true).isValid();
+	}
+
+	@Override
+	public boolean isValid(byte[] bytes) {
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		return new Radix4BlockDecoder.BytesDecoder(radix4, bytes, true).isValid();
+	}
+
+	@Override
+	public int encodeInto(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.encodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int encodeInto(byte[] src, int off, int len, char[] dst, int dstOff) {
+		return Radix4Arrays.encodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int decodeInto(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.decodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int decodeInto(char[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.decodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	// accumulates bytes without synchronization, and encodes them directly from its buffer on close;
+	// beyond the spill threshold, bytes are accumulated in a temporary file instead
+	private abstract class BlockOutputStream extends OutputStream {
 		
+		private byte[] buffer = new byte[radix4.bufferSize];
+		private int count = 0;
 		private boolean closed = false;
+		// chars into which encoded characters are widened, if needed
+		char[] chars = null;
+		
+		// non-null once bytes have been spilled
+		private File file = null;
+		private OutputStream fileOut = null;
+		// the number of bytes spilled
+		private long length;
+		// the number of leading radix free bytes spilled
+		private long radixFreeLength;
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (closed) throw new IOException("stream closed");
+			if (file == null) {
+				if (count < buffer.length) {
+					buffer[count++] = (byte) b;
+					return;
+				}
+				ensureCapacity(1);
+			}
+			if (file == null) {
+				buffer[count++] = (byte) b;
+			} else {
+				spill(b);
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (b == null) throw new NullPointerException();
+			if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+			if (closed) throw new IOException("stream closed");
+			if (file == null) ensureCapacity(len);
+			if (file == null) {
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+			} else {
+				spill(b, off, len);
+			}
+		}
 		
 		@Override
 		public void close() throws IOException {
 			if (closed) return;
-			flush(toByteArray());
+			closed = true;
+			if (file == null) {
+				encodeBuffered();
+				buffer = null;
+			} else {
+				try {
+					fileOut.close();
+					encodeSpilled();
+				} finally {
+					file.delete();
+				}
+			}
+		}
+		
+		// widens encoded characters into chars, returning the number widened
+		int widen(byte[] encoded, int from, int to) {
+			if (chars == null) chars = new char[radix4.bufferSize];
+			int length = Math.min(chars.length, to - from);
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) encoded[from + i];
+			}
+			return length;
+		}
+		
+		// makes room in the buffer or starts spilling
+		private void ensureCapacity(int len) throws IOException {
+			if (len <= buffer.length - count) return;
+			int threshold = radix4.spillThreshold;
+			if (threshold != Radix4Config.NO_SPILL && len > threshold - count) {
+				startSpilling();
+				return;
+			}
+			int required = count + len;
+			if (required < 0) throw new IOException("too many bytes");
+			int capacity = buffer.length << 1;
+			if (capacity < required) capacity = required;
+			if (capacity < 0) capacity = Integer.MAX_VALUE;
+			if (threshold != Radix4Config.NO_SPILL && capacity > threshold) capacity = threshold;
+			buffer = Arrays.copyOf(buffer, capacity);
+		}
+		
+		// moves the buffered bytes into a new temporary file
+		private void startSpilling() throws IOException {
+			file = File.createTempFile("radix4", null);
+			try {
+				fileOut = new BufferedOutputStream(new FileOutputStream(file), SPILL_BUFFER_SIZE);
+			} catch (IOException e) {
+				file.delete();
+				throw e;
+			}
+			length = 0L;
+			radixFreeLength = 0L;
+			spill(buffer, 0, count);
+			buffer = null;
+		}
+		
+		private void spill(byte[] b, int off, int len) throws IOException {
+			try {
+				fileOut.write(b, off, len);
+			} catch (IOException e) {
+				abandon();
+				throw e;
+			}
+			// extend the radix free prefix while no radix has been found
+			if (radix4.optimistic && radixFreeLength == length) {
+				radixFreeLength += radix4.computeRadixFreeLength(b, off, off + len);
+			}
+			length += len;
 		}
 		
-		abstract void flush(byte[] bytes) throws IOException;
+		// as above, for a single byte which is staged by the buffered file stream
+		private void spill(int b) throws IOException {
+			try {
+				fileOut.write(b);
+			} catch (IOException e) {
+				abandon();
+				throw e;
+			}
+			if (radix4.optimistic && radixFreeLength == length && radix4.encodings[b & 0xff] <= 0xff) {
+				radixFreeLength++;
+			}
+			length++;
+		}
+		
+		// discards the spilled bytes after a failure
+		private void abandon() throws IOException {
+			closed = true;
+			fileOut.close();
+			file.delete();
+		}
+		
+		// encodes the buffered bytes a chunk at a time, so that the whole encoding is never held
+		private void encodeBuffered() throws IOException {
+			Radix4Metrics metrics = radix4.metrics;
+			long start = metrics == null ? 0L : System.nanoTime();
+			Radix4BlockEncoder.BytesEncoder kernels = new Radix4BlockEncoder.BytesEncoder(radix4);
+			int radixFreeLength = radix4.optimistic ? radix4.computeRadixFreeLength(buffer, 0, count) : 0;
+			boolean separated = radix4.optimistic && (radixFreeLength < count || radix4.terminated);
+			Emitter emitter = new Emitter();
+			// chunks hold whole triples, so their radices are never split
+			byte[] encoded = new byte[SPILL_BUFFER_SIZE + SPILL_BUFFER_SIZE / 3];
+			// the radix free bytes, indicating their end unless it's unnecessary
+			for (int i = 0; i < radixFreeLength; ) {
+				int n = Math.min(SPILL_BUFFER_SIZE, radixFreeLength - i);
+				kernels.encodeRadixFree(buffer, i, i + n, encoded, 0);
+				emitter.emit(encoded, 0, n);
+				i += n;
+			}
+			if (separated) emitter.emit(radix4.terminatorByte);
+			// then the data of the radixed bytes, which is encoded like radix free bytes
+			for (int i = radixFreeLength; i < count; ) {
+				int n = Math.min(SPILL_BUFFER_SIZE, count - i);
+				kernels.encodeRadixFree(buffer, i, i + n, encoded, 0);
+				emitter.emit(encoded, 0, n);
+				i += n;
+			}
+			// then the radices of the radixed bytes
+			for (int i = radixFreeLength; i < count; ) {
+				int n = Math.min(SPILL_BUFFER_SIZE, count - i);
+				kernels.encodeTriples(buffer, i, i + n, encoded, 0, n);
+				emitter.emit(encoded, n, (n + 2) / 3);
+				i += n;
+			}
+			if (radix4.terminated) emitter.emit(radix4.terminatorByte);
+			emitter.flush();
+			if (metrics != null) {
+				metrics.encoded(count, radixFreeLength, emitter.count, emitter.lineBreaks, System.nanoTime() - start);
+			}
+		}
+		
+		// encodes the spilled bytes by reading them twice: for data and radices
+		private void encodeSpilled() throws IOException {
+			Radix4Metrics metrics = radix4.metrics;
+			long start = metrics == null ? 0L : System.nanoTime();
+			short[] encodings = radix4.encodings;
+			byte[] radixChars = radix4.mapping.chars;
+			boolean separated = radix4.optimistic && (radixFreeLength < length || radix4.terminated);
+			Emitter emitter = new Emitter();
+			byte[] bytes = new byte[SPILL_BUFFER_SIZE];
+			FileInputStream in = new FileInputStream(file);
+			try {
+				// the radix free bytes and the data of the radixed bytes
+				long position = 0L;
+				while (true) {
+					int r = readFully(in, bytes);
+					if (r == 0) break;
+					for (int i = 0; i < r; i++) {
+						// indicate the end of radix free bytes unless it's unnecessary
+						if (separated && position + i == radixFreeLength) emitter.emit(radix4.terminatorByte);
+						emitter.emit((byte) encodings[bytes[i] & 0xff]);
+					}
+					position += r;
+				}
+				if (separated && radixFreeLength == length) emitter.emit(radix4.terminatorByte);
+				// then the radices of the radixed bytes
+				in.getChannel().position(radixFreeLength);
+				while (true) {
+					int r = readFully(in, bytes);
+					if (r == 0) break;
+					int i = 0;
+					for (; r - i >= 3; i += 3) {
+						int e0 = encodings[bytes[i    ] & 0xff];
+						int e1 = encodings[bytes[i + 1] & 0xff];
+						int e2 = encodings[bytes[i + 2] & 0xff];
+						emitter.emit(radixChars[ (e0 >> 8) << 4 | (e1 >> 8) << 2 | e2 >> 8 ]);
+					}
+					// a partial triple can only occur at the end
+					if (i < r) {
+						int radix = (encodings[bytes[i] & 0xff] >> 8) << 4;
+						if (i + 1 < r) radix |= (encodings[bytes[i + 1] & 0xff] >> 8) << 2;
+						emitter.emit(radixChars[ radix ]);
+					}
+				}
+				if (radix4.terminated) emitter.emit(radix4.terminatorByte);
+				emitter.flush();
+			} finally {
+				in.close();
+			}
+			if (metrics != null) {
+				metrics.encoded(length, radixFreeLength, emitter.count, emitter.lineBreaks, System.nanoTime() - start);
+			}
+		}
+		
+		// outputs a range of encoded characters
+		abstract void output(byte[] encoded, int off, int len) throws IOException;
+		
+		// collects encoded characters into chunks, inserting line breaks
+		private final class Emitter {
+			
+			private final byte[] chunk = new byte[SPILL_BUFFER_SIZE];
+			private final boolean breakLines = radix4.lineLength != Radix4Config.NO_LINE_BREAK;
+			private int position = 0;
+			// the number of characters on the current line
+			private int column = 0;
+			// the number of characters emitted, including line breaks
+			long count = 0L;
+			long lineBreaks = 0L;
+			
+			void emit(byte c) throws IOException {
+				if (breakLines && column == radix4.lineLength) breakLine();
+				put(c);
+				column++;
+			}
+			
+			// as above, but copying the characters a line at a time
+			void emit(byte[] cs, int off, int len) throws IOException {
+				while (len > 0) {
+					if (breakLines && column == radix4.lineLength) breakLine();
+					if (position == chunk.length) flush();
+					int n = Math.min(len, chunk.length - position);
+					if (breakLines) n = Math.min(n, radix4.lineLength - column);
+					System.arraycopy(cs, off, chunk, position, n);
+					position += n;
+					count += n;
+					column += n;
+					off += n;
+					len -= n;
+				}
+			}
+			
+			void flush() throws IOException {
+				output(chunk, 0, position);
+				position = 0;
+			}
+			
+			private void breakLine() throws IOException {
+				for (byte b : radix4.lineBreakBytes) {
+					put(b);
+				}
+				column = 0;
+				lineBreaks++;
+			}
+			
+			private void put(byte b) throws IOException {
+				if (position == chunk.length) flush();
+				chunk[position++] = b;
+				count++;
+			}
+			
+		}
 		
 	}
 	
-	//TODO should steam optimistic bytes
+	// reads until the array is full or the stream ends, returning the number of bytes read
+	private static int readFully(InputStream in, byte[] bytes) throws IOException {
+		int count = 0;
+		while (count < bytes.length) {
+			int r = in.read(bytes, count, bytes.length - count);
+			if (r == -1) break;
+			count += r;
+		}
+		return count;
+	}
+	
+	// skips a number of bytes that are known to be available
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long s = in.skip(n);
+			if (s <= 0) {
+				if (in.read() < 0) break;
+				s = 1;
+			}
+			n -= s;
+		}
+	}
+
+	// skips a number of chars that are known to be available
+	private static void skipFully(Reader reader, long n) throws IOException {
+		while (n > 0) {
+			long s = reader.skip(n);
+			if (s <= 0) {
+				if (reader.read() < 0) break;
+				s = 1;
+			}
+			n -= s;
+		}
+	}
+
+	// in optimistic codings, radix free bytes are decoded as they are read,
+	// only the radixed bytes that follow them are decoded as a whole
 	private abstract class BlockInputStream extends InputStream {
 		
-		private byte[] bytes;
+		private byte[] bytes = radix4.optimistic ? new byte[radix4.bufferSize] : null;
 		private int length;
 		private int position;
 		private int mark = -1;
+		private int readlimit;
+		// whether radix free bytes may still be read
+		private boolean prefixed = radix4.optimistic;
+		// whether all of the input has been decoded
+		private boolean exhausted = false;
 		
 		@Override
 		public int read() throws IOException {
-			ensureBytes();
-			return position < length ? bytes[position++] & 0xff : -1;
+			return fill() ? bytes[position++] & 0xff : -1;
 		}
 
 		@Override
@@ -243,12 +772,10 @@ class Radix4Blocks implements Radix4Coding {
 			if (b == null) throw new NullPointerException();
 			if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
 
-			ensureBytes();
-			if (position == length) return -1;
+			if (len == 0) return 0;
+			if (!fill()) return -1;
 
 			int available = Math.min(length - position, len);
-			if (available == 0) return 0;
-
 			System.arraycopy(bytes, position, b, off, available);
 			position += available;
 			return available;
@@ -257,11 +784,12 @@ class Radix4Blocks implements Radix4Coding {
 		@Override
 		public void mark(int readlimit) {
 			mark = position;
+			this.readlimit = readlimit;
 		}
 		
 		@Override
 		public int available() throws IOException {
-			ensureBytes();
+			fill();
 			return length - position;
 		}
 		
@@ -283,24 +811,60 @@ class Radix4Blocks implements Radix4Coding {
 		
 		@Override
 		public long skip(long n) throws IOException {
-			if (n <= 0L) return 0L;
-			ensureBytes();
-			int available = length - position;
-			if (n > available) {
-				position = length;
-				return available;
-			} else {
-				position += (int) n;
-				return n;
+			long skipped = 0L;
+			while (skipped < n && fill()) {
+				int count = (int) Math.min(length - position, n - skipped);
+				position += count;
+				skipped += count;
 			}
+			return skipped;
 		}
 
-		private void ensureBytes() throws IOException {
-			if (bytes != null) return;
-			bytes = slurp();
-			length = bytes.length;
+		// ensures that there are bytes to read, returning false at the end of the input
+		private boolean fill() throws IOException {
+			while (position == length) {
+				if (exhausted) return false;
+				if (prefixed) {
+					retain();
+					if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+					int count = readPrefix(bytes, length, bytes.length - length);
+					if (count == -1) {
+						prefixed = false;
+					} else {
+						length += count;
+					}
+				} else {
+					byte[] tail = slurp();
+					if (bytes == null || length == 0) {
+						bytes = tail;
+						length = tail.length;
+					} else {
+						retain();
+						bytes = Arrays.copyOf(bytes, length + tail.length);
+						System.arraycopy(tail, 0, bytes, length, tail.length);
+						length += tail.length;
+					}
+					exhausted = true;
+				}
+			}
+			return true;
 		}
 		
+		// discards the bytes that have been read, other than any that may be reset to
+		private void retain() {
+			if (mark != -1 && position - mark > readlimit) mark = -1;
+			int from = mark == -1 ? position : mark;
+			if (from == 0) return;
+			System.arraycopy(bytes, from, bytes, 0, length - from);
+			length -= from;
+			position -= from;
+			if (mark != -1) mark = 0;
+		}
+		
+		// decodes radix free bytes into the array, returning -1 if there are no more
+		abstract int readPrefix(byte[] b, int off, int len) throws IOException;
+		
+		// decodes all of the bytes not decoded by the prefix
 		abstract byte[] slurp() throws IOException;
 		
 	}
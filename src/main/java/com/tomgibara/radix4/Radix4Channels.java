@@ -0,0 +1,166 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CoderResult;
+
+/**
+ * Adapts Radix4 encoders and decoders to NIO channels. The channels exchange
+ * data with the underlying channels via direct buffers and assume that they
+ * are in blocking mode.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+final class Radix4Channels {
+
+	private Radix4Channels() { }
+	
+	static final class EncodingChannel implements GatheringByteChannel {
+		
+		private final Radix4Encoder encoder;
+		private final WritableByteChannel channel;
+		private final ByteBuffer out;
+		private boolean open = true;
+		
+		EncodingChannel(Radix4Encoder encoder, WritableByteChannel channel) {
+			this.encoder = encoder;
+			this.channel = channel;
+			// room for at least one complete triple
+			out = ByteBuffer.allocateDirect(Math.max(encoder.radix4.bufferSize, 4));
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+		
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (!open) throw new ClosedChannelException();
+			int count = src.remaining();
+			encode(src, false);
+			return count;
+		}
+		
+		@Override
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+		
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			if (offset < 0 || length < 0 || offset > srcs.length - length) throw new IndexOutOfBoundsException();
+			if (!open) throw new ClosedChannelException();
+			long count = 0L;
+			// all buffers are encoded into the same output buffer
+			for (int i = offset; i < offset + length; i++) {
+				ByteBuffer src = srcs[i];
+				count += src.remaining();
+				encode(src, false);
+			}
+			return count;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (!open) return;
+			open = false;
+			encode(ByteBuffer.allocate(0), true);
+			writeOut();
+			// we don't close the underlying channel if termination is explicit
+			if (!encoder.radix4.terminated) channel.close();
+		}
+		
+		private void encode(ByteBuffer src, boolean endOfInput) throws IOException {
+			while (encoder.encode(src, out, endOfInput) == CoderResult.OVERFLOW) {
+				writeOut();
+			}
+		}
+		
+		private void writeOut() throws IOException {
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			out.clear();
+		}
+		
+	}
+	
+	static final class DecodingChannel implements ReadableByteChannel {
+		
+		private final Radix4Decoder decoder;
+		private final ReadableByteChannel channel;
+		private final ByteBuffer in;
+		private boolean endOfInput = false;
+		private boolean open = true;
+		
+		DecodingChannel(Radix4Decoder decoder, ReadableByteChannel channel) {
+			this.decoder = decoder;
+			this.channel = channel;
+			in = ByteBuffer.allocateDirect(decoder.radix4.bufferSize);
+			in.flip();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+		
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!open) throw new ClosedChannelException();
+			int position = dst.position();
+			while (dst.hasRemaining()) {
+				try {
+					decoder.decode(in, dst, endOfInput);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+				if (decoder.isComplete()) break;
+				// don't block if we've already read something
+				if (dst.position() > position) break;
+				if (!in.hasRemaining()) {
+					in.clear();
+					int r = channel.read(in);
+					if (r == -1) endOfInput = true;
+					in.flip();
+				}
+			}
+			int count = dst.position() - position;
+			return count == 0 && decoder.isComplete() ? -1 : count;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (!open) return;
+			open = false;
+			// as with encoding, leave the channel open if termination is explicit
+			if (!decoder.radix4.terminated) channel.close();
+		}
+		
+	}
+	
+}
@@ -20,6 +20,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
 
 public interface Radix4Coding {
 
@@ -74,6 +78,12 @@ public interface Radix4Coding {
 	 * data via an {@link InputStream} from which the decoded binary data may be
 	 * read.
 	 * 
+	 * For terminated codings, any data that follows the encoding remains
+	 * readable from the supplied stream if it supports marking, or if it is a
+	 * {@link java.io.PushbackInputStream} that can push back at least
+	 * {@link Radix4#getBufferSize()} bytes. Block codings read other streams
+	 * in bulk, and do not preserve the data that follows the encoding.
+	 * 
 	 * @param in
 	 *            an input stream from which Radix4 encoded data may be read
 	 * @return an input stream from which the decoded binary data can be read
@@ -86,6 +96,12 @@ public interface Radix4Coding {
 	 * data via an {@link InputStream} from which the decoded binary data may be
 	 * read.
 	 * 
+	 * For terminated codings, any data that follows the encoding remains
+	 * readable from the supplied reader if it supports marking, or if it is a
+	 * {@link java.io.PushbackReader} that can push back at least
+	 * {@link Radix4#getBufferSize()} chars. Block codings read other readers
+	 * in bulk, and do not preserve the data that follows the encoding.
+	 * 
 	 * @param in
 	 *            an reader from which Radix4 encoded data may be read
 	 * @return an input stream from which the decoded binary data can be read
@@ -106,6 +122,104 @@ public interface Radix4Coding {
 	
 	InputStream inputFromChars(CharSequence chars);
 
+	// channel based methods
+	
+	/**
+	 * Provides encoding to a {@link WritableByteChannel} to which character
+	 * data will be written as ASCII bytes. The returned channel supports
+	 * gathering writes, all of the supplied buffers being encoded before the
+	 * output is written to the underlying channel. The underlying channel is
+	 * expected to be in blocking mode.
+	 * 
+	 * @param channel
+	 *            a channel to which Radix4 encoded data should be written
+	 * @return a channel to which binary data may be written for encoding
+	 */
+	
+	GatheringByteChannel outputToChannel(WritableByteChannel channel);
+	
+	/**
+	 * Provides decoding from a {@link ReadableByteChannel} containing Radix4
+	 * encoded data via a channel from which the decoded binary data may be
+	 * read. The underlying channel is expected to be in blocking mode. Since
+	 * channels do not support pushing data back, any data following the end
+	 * of a terminated encoding may have been read from the underlying channel.
+	 * 
+	 * @param channel
+	 *            a channel from which Radix4 encoded data may be read
+	 * @return a channel from which the decoded binary data can be read
+	 */
+	
+	ReadableByteChannel inputFromChannel(ReadableByteChannel channel);
+	
+	/**
+	 * Provides decoding of consecutive terminated encodings from an
+	 * {@link InputStream}, each of which is decoded as a separate record.
+	 * The records are read from the stream through a single read-ahead
+	 * buffer.
+	 * 
+	 * @param in
+	 *            an input stream from which Radix4 encoded records may be read
+	 * @return a reader of the decoded records
+	 * @throws IllegalStateException
+	 *             if the coding is not terminated
+	 */
+	
+	Radix4RecordReader recordsFromStream(InputStream in);
+	
+	/**
+	 * Provides decoding of consecutive terminated encodings from a
+	 * {@link ReadableByteChannel}, each of which is decoded as a separate
+	 * record. The records are read from the channel through a single
+	 * read-ahead buffer. The underlying channel is expected to be in blocking
+	 * mode.
+	 * 
+	 * @param channel
+	 *            a channel from which Radix4 encoded records may be read
+	 * @return a reader of the decoded records
+	 * @throws IllegalStateException
+	 *             if the coding is not terminated
+	 */
+	
+	Radix4RecordReader recordsFromChannel(ReadableByteChannel channel);
+	
+	// buffer based methods
+	
+	/**
+	 * Creates a new encoder that can encode binary data incrementally from
+	 * {@link java.nio.ByteBuffer}s.
+	 * 
+	 * @return a new encoder
+	 */
+	
+	Radix4Encoder newEncoder();
+	
+	/**
+	 * Creates a new decoder that can decode Radix4 encoded data incrementally
+	 * from {@link java.nio.CharBuffer}s or {@link java.nio.ByteBuffer}s.
+	 * 
+	 * @return a new decoder
+	 */
+	
+	Radix4Decoder newDecoder();
+	
+	// concurrency
+	
+	/**
+	 * Provides a coding that uses the supplied executor to process large byte
+	 * arrays concurrently, producing output identical to that of this coding.
+	 * The calling thread participates in the work and runs any tasks the
+	 * executor has not yet started, so any executor may be supplied, including
+	 * a <code>ForkJoinPool</code> or one that runs tasks on the calling
+	 * thread. Methods that do not operate on arrays are unaffected.
+	 * 
+	 * @param executor
+	 *            the executor to which tasks will be submitted
+	 * @return a coding that operates on large arrays concurrently
+	 */
+	
+	Radix4Coding parallel(Executor executor);
+	
 	// array based methods
 	
 	/**
@@ -148,4 +262,130 @@ public interface Radix4Coding {
 	 */
 
 	byte[] decodeFromBytes(byte[] bytes);
+	
+	/**
+	 * Whether a {@link CharSequence} consists of exactly one valid Radix4
+	 * encoding. The characters are checked without being decoded, so that
+	 * data can be validated once, before being decoded by a trusted coding.
+	 * 
+	 * @param chars
+	 *            the Radix4 encoded data
+	 * @return true iff the characters would be decoded successfully
+	 * @see Radix4Config#setTrusted(boolean)
+	 */
+
+	boolean isValid(CharSequence chars);
+	
+	/**
+	 * Whether a byte array consists of exactly one valid Radix4 encoding. The
+	 * bytes are checked without being decoded, so that data can be validated
+	 * once, before being decoded by a trusted coding.
+	 * 
+	 * @param bytes
+	 *            the Radix4 encoded data
+	 * @return true iff the bytes would be decoded successfully
+	 * @see Radix4Config#setTrusted(boolean)
+	 */
+
+	boolean isValid(byte[] bytes);
+	
+	/**
+	 * Encodes a range of a byte array into a supplied byte array of ASCII
+	 * characters. No intermediate arrays are allocated. The exact number of
+	 * characters required to encode a whole array is reported by
+	 * {@link Radix4#computeEncodedLength(byte[])}.
+	 * 
+	 * @param src
+	 *            the array containing the bytes to encode
+	 * @param off
+	 *            the index of the first byte to encode
+	 * @param len
+	 *            the number of bytes to encode
+	 * @param dst
+	 *            the array into which the encoded characters are written
+	 * @param dstOff
+	 *            the index at which the first character is written
+	 * @return the number of characters written
+	 * @throws IllegalArgumentException
+	 *             if the destination has insufficient space from the offset
+	 *             to contain the encoding, in which case it is unmodified
+	 */
+	
+	int encodeInto(byte[] src, int off, int len, byte[] dst, int dstOff);
+	
+	/**
+	 * Encodes a range of a byte array into a supplied character array. No
+	 * intermediate arrays are allocated.
+	 * 
+	 * @param src
+	 *            the array containing the bytes to encode
+	 * @param off
+	 *            the index of the first byte to encode
+	 * @param len
+	 *            the number of bytes to encode
+	 * @param dst
+	 *            the array into which the encoded characters are written
+	 * @param dstOff
+	 *            the index at which the first character is written
+	 * @return the number of characters written
+	 * @throws IllegalArgumentException
+	 *             if the destination has insufficient space from the offset
+	 *             to contain the encoding, in which case it is unmodified
+	 * @see #encodeInto(byte[], int, int, byte[], int)
+	 */
+	
+	int encodeInto(byte[] src, int off, int len, char[] dst, int dstOff);
+	
+	/**
+	 * Decodes a range of a byte array containing exactly one Radix4 encoding
+	 * into a supplied byte array. A destination with space for as many bytes
+	 * as there are characters in the range is always sufficient. Unless the
+	 * range contains whitespace, no intermediate arrays are allocated.
+	 * 
+	 * @param src
+	 *            the array containing the Radix4 encoded data
+	 * @param off
+	 *            the index of the first encoded character
+	 * @param len
+	 *            the number of encoded characters
+	 * @param dst
+	 *            the array into which the decoded bytes are written
+	 * @param dstOff
+	 *            the index at which the first byte is written
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException
+	 *             if the destination has insufficient space from the offset
+	 *             to contain the decoded bytes, in which case it is
+	 *             unmodified; or if the range does not contain a valid
+	 *             encoding, in which case bytes decoded before the invalid
+	 *             character may already have been written to the destination
+	 */
+	
+	int decodeInto(byte[] src, int off, int len, byte[] dst, int dstOff);
+	
+	/**
+	 * Decodes a range of a character array containing exactly one Radix4
+	 * encoding into a supplied byte array.
+	 * 
+	 * @param src
+	 *            the array containing the Radix4 encoded data
+	 * @param off
+	 *            the index of the first encoded character
+	 * @param len
+	 *            the number of encoded characters
+	 * @param dst
+	 *            the array into which the decoded bytes are written
+	 * @param dstOff
+	 *            the index at which the first byte is written
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException
+	 *             if the destination has insufficient space from the offset
+	 *             to contain the decoded bytes, in which case it is
+	 *             unmodified; or if the range does not contain a valid
+	 *             encoding, in which case bytes decoded before the invalid
+	 *             character may already have been written to the destination
+	 * @see #decodeInto(byte[], int, int, byte[], int)
+	 */
+	
+	int decodeInto(char[] src, int off, int len, byte[] dst, int dstOff);
 }
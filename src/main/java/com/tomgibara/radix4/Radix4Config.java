@@ -56,38 +56,49 @@ public final class Radix4Config implements Serializable {
 	}
 	
 	static final int NO_LINE_BREAK = 0;
+	static final int NO_SPILL = 0;
 	
 	Radix4Mapping mapping;
 	int bufferSize;
+	int spillThreshold;
 	int lineLength;
 	char[] whitespace = DEFAULT_WHITESPACE;
 	String lineBreak;
 	boolean streaming;
 	boolean terminated;
 	boolean optimistic;
+	boolean trusted;
 	char terminator;
+	// metrics are not part of the definition's serialized form
+	transient Radix4Metrics metrics;
 	
 	Radix4Config(boolean streaming) {
 		mapping = Radix4Mapping.DEFAULT;
 		bufferSize = DEFAULT_BUFFER_SIZE;
+		spillThreshold = NO_SPILL;
 		lineLength = NO_LINE_BREAK;
 		lineBreak = DEFAULT_LINE_BREAK;
 		this.streaming = streaming;
 		optimistic = true;
+		trusted = false;
 		terminated = false;
 		terminator = DEFAULT_TERMINATOR;
+		metrics = null;
 	}
 	
 	Radix4Config(Radix4 radix4) {
 		mapping = radix4.mapping;
 		bufferSize = radix4.bufferSize;
+		spillThreshold = radix4.spillThreshold;
 		lineLength = radix4.lineLength;
 		whitespace = radix4.whitespace;
 		lineBreak = radix4.lineBreak;
 		streaming = radix4.streaming;
 		optimistic = radix4.optimistic;
+		trusted = radix4.trusted;
 		terminated = radix4.terminated;
 		terminator = radix4.terminator;
+		metrics = radix4.metrics;
 	}
 	
 	/**
@@ -105,7 +116,9 @@ public final class Radix4Config implements Serializable {
 	
 	/**
 	 * Specifies the number of bytes used to buffer stream operations. Note that
-	 * currently buffering is only applied to writing and not reading.
+	 * when reading terminated streams, characters are only read ahead if the
+	 * underlying stream supports marking, since otherwise data following the
+	 * terminator would be consumed.
 	 * 
 	 * It's possible to restore the default buffer size by supplying a
 	 * non-positive size.
@@ -122,6 +135,27 @@ public final class Radix4Config implements Serializable {
 		return this;
 	}
 	
+	/**
+	 * The number of bytes that a block formatted output stream will hold in
+	 * memory before further bytes are written to a temporary file. Since the
+	 * radices of a block are written after its data, nothing can be output
+	 * until the stream is closed; spilling bounds the memory used in the
+	 * meantime. A non-positive threshold indicates that bytes should never be
+	 * spilled.
+	 * 
+	 * By default, bytes are not spilled.
+	 * 
+	 * @param spillThreshold
+	 *            the number of bytes which may be held in memory, or a
+	 *            non-positive number to indicate no limit
+	 * @return the modified configuration
+	 */
+	
+	public Radix4Config setSpillThreshold(int spillThreshold) {
+		this.spillThreshold = spillThreshold < 1 ? NO_SPILL : spillThreshold;
+		return this;
+	}
+	
 	/**
 	 * Specifies whether Radix4 stream formatting should be used.
 	 * 
@@ -164,6 +198,42 @@ public final class Radix4Config implements Serializable {
 		return this;
 	}
 	
+	/**
+	 * Whether encoded data is trusted to be valid, typically because it was
+	 * produced by the same coding and has been stored with an integrity check.
+	 * Trusted data is decoded without classifying each character, which is
+	 * faster, but an invalid encoding may then be decoded into arbitrary bytes
+	 * instead of being rejected. Untrusted data can be checked once with
+	 * {@link Radix4Coding#isValid(byte[])} before being trusted.
+	 * 
+	 * By default, encoded data is not trusted.
+	 * 
+	 * @param trusted
+	 *            whether encoded data may be decoded without validation
+	 * @return the modified configuration
+	 */
+
+	public Radix4Config setTrusted(boolean trusted) {
+		this.trusted = trusted;
+		return this;
+	}
+
+	/**
+	 * Metrics which are to record the operations performed by codings of the
+	 * definition. Metrics are not retained when a definition is serialized.
+	 * 
+	 * By default, no metrics are recorded.
+	 * 
+	 * @param metrics
+	 *            the metrics to record operations, or null to record none
+	 * @return the modified configuration
+	 */
+
+	public Radix4Config setMetrics(Radix4Metrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
 	/**
 	 * The number of characters output before a line-break is inserted. A
 	 * non-negative line length indicates that no line-breaks should be
@@ -283,9 +353,12 @@ public final class Radix4Config implements Serializable {
 		if (this.streaming != that.streaming) return false;
 		if (this.terminated != that.terminated) return false;
 		if (this.optimistic != that.optimistic) return false;
+		if (this.trusted != that.trusted) return false;
 		if (this.terminator != that.terminator) return false;
 		if (this.bufferSize != that.bufferSize) return false;
+		if (this.spillThreshold != that.spillThreshold) return false;
 		if (!this.mapping.equals(that.mapping)) return false;
+		if (this.metrics != that.metrics) return false;
 		return true;
 	}
 	
@@ -296,6 +369,8 @@ public final class Radix4Config implements Serializable {
 		hash *= 31;
 		hash += bufferSize;
 		hash *= 31;
+		hash += spillThreshold;
+		hash *= 31;
 		hash += lineBreak.hashCode();
 		hash *= 31;
 		hash += terminator;
@@ -304,6 +379,8 @@ public final class Radix4Config implements Serializable {
 		hash *= 31;
 		if (optimistic) hash += 1;
 		hash *= 31;
+		if (trusted) hash += 1;
+		hash *= 31;
 		if (terminated) hash += 1;
 		hash *= 31;
 		return hash;
@@ -0,0 +1,391 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+
+/**
+ * Incrementally decodes Radix4 encoded data in the manner of a
+ * {@link java.nio.charset.CharsetDecoder}. Input may be supplied over any
+ * number of calls as either a {@link CharBuffer} or a {@link ByteBuffer} of
+ * ASCII characters; the decoder retains whatever state is necessary between
+ * them.
+ * 
+ * For terminated codings, the decoder stops consuming input once the
+ * terminating sequence has been read; any data which follows it remains in
+ * the input buffer.
+ * 
+ * Decoders for block codings cannot produce any output until all input has
+ * been supplied, and so buffer their input internally.
+ * 
+ * Instances of this class are not safe for concurrent use by multiple threads.
+ * Unless otherwise indicated, passing a null parameter to any method of this
+ * class will raise an {@link IllegalArgumentException}.
+ * 
+ * @author tomgibara
+ * @see Radix4Coding#newDecoder()
+ */
+
+public abstract class Radix4Decoder {
+
+	final Radix4 radix4;
+	// decoded bytes that have yet to be written to the output buffer
+	private final byte[] staging;
+	// the bytes currently being written out, usually the staging array
+	private byte[] pending;
+	// the range of pending bytes
+	private int pendingStart = 0;
+	private int pendingEnd = 0;
+	// whether the end of the encoded data has been reached
+	private boolean finished = false;
+	// the input buffer for the current call, only one of which will be set
+	private ByteBuffer byteIn = null;
+	private CharBuffer charIn = null;
+	// when metrics are recorded, the time at which decoding started
+	long start;
+	// the number of bytes written to output buffers
+	private long byteCount = 0L;
+	
+	Radix4Decoder(Radix4 radix4) {
+		this.radix4 = radix4;
+		staging = new byte[radix4.bufferSize];
+		pending = staging;
+		start = radix4.metrics == null ? 0L : System.nanoTime();
+	}
+	
+	/**
+	 * The definition of the Radix4 coding being used.
+	 * 
+	 * @return the Radix4 definition, never null
+	 */
+
+	public Radix4 getRadix4() {
+		return radix4;
+	}
+	
+	/**
+	 * Decodes as many characters as possible from the input buffer, writing
+	 * the decoded bytes to the output buffer.
+	 * 
+	 * @param in
+	 *            the Radix4 encoded characters
+	 * @param out
+	 *            the buffer to which decoded bytes should be written
+	 * @param endOfInput
+	 *            true if the input buffer contains the last of the encoded
+	 *            data
+	 * @return {@link CoderResult#UNDERFLOW} if more input is required or the
+	 *         decoding is complete, {@link CoderResult#OVERFLOW} if more space
+	 *         is required in the output buffer
+	 * @throws IllegalArgumentException
+	 *             if the input is not a valid encoding
+	 */
+
+	public CoderResult decode(CharBuffer in, ByteBuffer out, boolean endOfInput) {
+		if (in == null) throw new IllegalArgumentException("null in");
+		if (out == null) throw new IllegalArgumentException("null out");
+		charIn = in;
+		try {
+			return decode(out, endOfInput);
+		} finally {
+			charIn = null;
+		}
+	}
+
+	/**
+	 * Decodes as many ASCII characters as possible from the input buffer,
+	 * writing the decoded bytes to the output buffer.
+	 * 
+	 * @param in
+	 *            the Radix4 encoded characters as ASCII bytes
+	 * @param out
+	 *            the buffer to which decoded bytes should be written
+	 * @param endOfInput
+	 *            true if the input buffer contains the last of the encoded
+	 *            data
+	 * @return {@link CoderResult#UNDERFLOW} if more input is required or the
+	 *         decoding is complete, {@link CoderResult#OVERFLOW} if more space
+	 *         is required in the output buffer
+	 * @throws IllegalArgumentException
+	 *             if the input is not a valid encoding
+	 */
+
+	public CoderResult decode(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+		if (in == null) throw new IllegalArgumentException("null in");
+		if (out == null) throw new IllegalArgumentException("null out");
+		byteIn = in;
+		try {
+			return decode(out, endOfInput);
+		} finally {
+			byteIn = null;
+		}
+	}
+
+	/**
+	 * Whether the end of the encoded data has been reached and all of the
+	 * decoded data has been written. For terminated codings this occurs when
+	 * the terminating sequence has been read, otherwise when the end of input
+	 * has been indicated.
+	 * 
+	 * @return true iff the decoding is complete
+	 */
+
+	public boolean isComplete() {
+		return finished && pendingStart == pendingEnd;
+	}
+	
+	/**
+	 * Discards all state so that the decoder can be used to decode new data.
+	 * Internal buffers are retained, so a decoder that is repeatedly reset
+	 * and reused stops allocating memory once its buffers have grown to
+	 * accommodate the largest decoding.
+	 * 
+	 * @return this decoder
+	 */
+
+	public Radix4Decoder reset() {
+		pending = staging;
+		pendingStart = 0;
+		pendingEnd = 0;
+		finished = false;
+		if (radix4.metrics != null) start = System.nanoTime();
+		byteCount = 0L;
+		resetState();
+		return this;
+	}
+
+	// consumes input while there is room to stage its decoding, returning true if the end of the encoding was read
+	abstract boolean consume();
+	
+	// called at the end of input if the end of the encoding has not been read
+	abstract void finish();
+	
+	abstract void resetState();
+
+	boolean hasInput() {
+		return charIn == null ? byteIn.hasRemaining() : charIn.hasRemaining();
+	}
+	
+	int readChar() {
+		return charIn == null ? byteIn.get() & 0xff : charIn.get();
+	}
+	
+	// the position of the input buffer, from which the number of chars consumed can be found
+	int inputPosition() {
+		return charIn == null ? byteIn.position() : charIn.position();
+	}
+	
+	boolean hasRoom() {
+		return pendingEnd < staging.length;
+	}
+	
+	// stages a decoded byte
+	void write(int b) {
+		pending[pendingEnd++] = (byte) b;
+	}
+	
+	// the number of bytes output, including those staged but not yet written
+	long byteCount() {
+		return byteCount + pendingEnd - pendingStart;
+	}
+	
+	// reports an invalid encoding to any metrics
+	IllegalArgumentException invalid(String message) {
+		if (radix4.metrics != null) radix4.metrics.rejected();
+		return new IllegalArgumentException(message);
+	}
+	
+	// supplies complete output for writing
+	void writeAll(byte[] bytes, int length) {
+		pending = bytes;
+		pendingStart = 0;
+		pendingEnd = length;
+	}
+	
+	private CoderResult decode(ByteBuffer out, boolean endOfInput) {
+		while (true) {
+			if (!drain(out)) return CoderResult.OVERFLOW;
+			if (finished) {
+				return CoderResult.UNDERFLOW;
+			} else if (hasInput()) {
+				finished = consume();
+			} else if (endOfInput) {
+				finish();
+				finished = true;
+			} else {
+				return CoderResult.UNDERFLOW;
+			}
+		}
+	}
+	
+	// writes pending bytes to the output buffer, returning false if not all of them could be written
+	private boolean drain(ByteBuffer out) {
+		int length = pendingEnd - pendingStart;
+		if (length == 0) return true;
+		int count = Math.min(out.remaining(), length);
+		out.put(pending, pendingStart, count);
+		pendingStart += count;
+		byteCount += count;
+		if (pendingStart < pendingEnd) return false;
+		pending = staging;
+		pendingStart = 0;
+		pendingEnd = 0;
+		return true;
+	}
+	
+	final static class Stream extends Radix4Decoder {
+		
+		private final byte[] unmappings;
+		private final int termChar;
+		// the radix of the current triple
+		private int radix;
+		// 0 when expecting a radix, otherwise the index of the next char in the triple: 1, 2 or 3
+		private int index;
+		// whether a terminator has yet to end the radix-free bytes
+		private boolean radixFree;
+		// the number of chars consumed, and of those that were whitespace
+		private long charCount;
+		private long whitespaceCount;
+		
+		Stream(Radix4 radix4) {
+			super(radix4);
+			unmappings = radix4.unmappings;
+			termChar = radix4.terminator;
+			resetState();
+		}
+		
+		@Override
+		boolean consume() {
+			int from = inputPosition();
+			while (hasInput() && hasRoom()) {
+				int c = readChar();
+				if (c == termChar) {
+					if (radixFree) {
+						radixFree = false;
+						continue;
+					}
+					if (index == 1) throw invalid("unexpected terminator");
+					if (index == 0 && !radix4.terminated) throw invalid("unexpected terminator");
+					charCount += inputPosition() - from;
+					decoded();
+					return true;
+				}
+				int b = radix4.lookupByte(c);
+				if (b == -2) { // whitespace
+					whitespaceCount++;
+					continue;
+				}
+				if (b == -1) throw invalid("invalid character");
+				if (radixFree) {
+					write(unmappings[b]);
+				} else if (index == 0) {
+					radix = b;
+					index = 1;
+				} else {
+					write(unmappings[b | ((radix << (index << 1)) & 0xc0)]);
+					index = index == 3 ? 0 : index + 1;
+				}
+			}
+			charCount += inputPosition() - from;
+			return false;
+		}
+		
+		@Override
+		void finish() {
+			if (radix4.terminated || index == 1) throw invalid("unexpected end of input");
+			decoded();
+		}
+		
+		@Override
+		void resetState() {
+			radix = 0;
+			index = 0;
+			radixFree = radix4.optimistic;
+			charCount = 0L;
+			whitespaceCount = 0L;
+		}
+		
+		// reports the completed decoding to any metrics
+		private void decoded() {
+			Radix4Metrics metrics = radix4.metrics;
+			if (metrics != null) metrics.decoded(charCount, whitespaceCount, byteCount(), System.nanoTime() - start);
+		}
+		
+	}
+	
+	final static class Block extends Radix4Decoder {
+
+		// accumulates all non-whitespace input prior to decoding
+		private final StringBuilder chars = new StringBuilder();
+		// decodes the accumulated chars, and is reused with them
+		private final Radix4BlockDecoder.CharsDecoder decoder;
+		// the array most recently decoded into, retained for reuse
+		private byte[] decoded = null;
+		// the number of terminators expected before the end of a terminated encoding
+		private int terminators;
+		// the number of whitespace chars skipped
+		private int whitespace;
+		
+		Block(Radix4 radix4) {
+			super(radix4);
+			decoder = new Radix4BlockDecoder.CharsDecoder(radix4, chars, false);
+			resetState();
+		}
+		
+		@Override
+		boolean consume() {
+			int term = radix4.terminator;
+			while (hasInput()) {
+				int c = readChar();
+				if (radix4.isWhitespace(c)) {
+					whitespace++;
+					continue;
+				}
+				chars.append((char) c);
+				if (c == term && radix4.terminated && --terminators == 0) {
+					decode();
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		void finish() {
+			if (radix4.terminated) throw invalid("unexpected end of input");
+			decode();
+		}
+		
+		@Override
+		void resetState() {
+			chars.setLength(0);
+			terminators = radix4.terminated && radix4.optimistic ? 2 : 1;
+			whitespace = 0;
+		}
+		
+		private void decode() {
+			// the whitespace was stripped here rather than by the decoder, which reports it
+			decoder.whitespace = whitespace;
+			decoded = decoder.decodeReusing(decoded);
+			writeAll(decoded, decoder.size());
+		}
+		
+	}
+	
+}
@@ -0,0 +1,391 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+
+/**
+ * Incrementally encodes binary data from {@link ByteBuffer}s in the manner of
+ * a {@link java.nio.charset.CharsetEncoder}. Input may be supplied over any
+ * number of calls; the encoder retains whatever state is necessary between
+ * them. Encoded characters may be written to either a {@link ByteBuffer} (as
+ * ASCII) or a {@link CharBuffer}.
+ * 
+ * Encoders for block codings cannot produce any output until all input has
+ * been supplied, and so buffer their input internally.
+ * 
+ * Instances of this class are not safe for concurrent use by multiple threads.
+ * Unless otherwise indicated, passing a null parameter to any method of this
+ * class will raise an {@link IllegalArgumentException}.
+ * 
+ * @author tomgibara
+ * @see Radix4Coding#newEncoder()
+ */
+
+public abstract class Radix4Encoder {
+
+	final Radix4 radix4;
+	// encoded bytes that have yet to be written to the output buffer
+	private final byte[] staging;
+	// the bytes currently being written out, usually the staging array
+	private byte[] pending;
+	// the range of pending bytes
+	private int pendingStart = 0;
+	private int pendingEnd = 0;
+	// the point beyond which there may not be room to stage another encoded byte
+	private final int stagingLimit;
+	// number of chars output on the current line
+	private int column = 0;
+	// whether all input has been received
+	private boolean finished = false;
+	// the output buffer for the current call, only one of which will be set
+	private ByteBuffer byteOut = null;
+	private CharBuffer charOut = null;
+	// when metrics are recorded, the time at which encoding started
+	long start;
+	// the number of chars written to output buffers, and the number of line breaks staged
+	private long charCount = 0L;
+	long lineBreakCount = 0L;
+	
+	Radix4Encoder(Radix4 radix4, int maxUnit) {
+		this.radix4 = radix4;
+		// each unit of output may be preceded by a line break
+		maxUnit *= radix4.lineBreakBytes.length + 1;
+		staging = new byte[radix4.bufferSize + maxUnit];
+		pending = staging;
+		stagingLimit = radix4.bufferSize;
+		start = radix4.metrics == null ? 0L : System.nanoTime();
+	}
+	
+	/**
+	 * The definition of the Radix4 coding being used.
+	 * 
+	 * @return the Radix4 definition, never null
+	 */
+
+	public Radix4 getRadix4() {
+		return radix4;
+	}
+	
+	/**
+	 * Encodes as many bytes as possible from the input buffer, writing the
+	 * encoded characters to the output buffer as ASCII bytes. When
+	 * <code>endOfInput</code> is true, this method will only return
+	 * {@link CoderResult#UNDERFLOW} once the encoding has been completely
+	 * written.
+	 * 
+	 * @param in
+	 *            the binary data to be encoded
+	 * @param out
+	 *            the buffer to which encoded characters should be written
+	 * @param endOfInput
+	 *            true if the input buffer contains the last of the data to be
+	 *            encoded
+	 * @return {@link CoderResult#UNDERFLOW} if more input is required,
+	 *         {@link CoderResult#OVERFLOW} if more space is required in the
+	 *         output buffer
+	 * @throws IllegalStateException
+	 *             if input is supplied after the end of input has been
+	 *             indicated and the encoder has not been reset
+	 */
+
+	public CoderResult encode(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+		if (in == null) throw new IllegalArgumentException("null in");
+		if (out == null) throw new IllegalArgumentException("null out");
+		byteOut = out;
+		try {
+			return encode(in, endOfInput);
+		} finally {
+			byteOut = null;
+		}
+	}
+
+	/**
+	 * Encodes as many bytes as possible from the input buffer, writing the
+	 * encoded characters to the output buffer. When <code>endOfInput</code>
+	 * is true, this method will only return {@link CoderResult#UNDERFLOW} once
+	 * the encoding has been completely written.
+	 * 
+	 * @param in
+	 *            the binary data to be encoded
+	 * @param out
+	 *            the buffer to which encoded characters should be written
+	 * @param endOfInput
+	 *            true if the input buffer contains the last of the data to be
+	 *            encoded
+	 * @return {@link CoderResult#UNDERFLOW} if more input is required,
+	 *         {@link CoderResult#OVERFLOW} if more space is required in the
+	 *         output buffer
+	 * @throws IllegalStateException
+	 *             if input is supplied after the end of input has been
+	 *             indicated and the encoder has not been reset
+	 */
+
+	public CoderResult encode(ByteBuffer in, CharBuffer out, boolean endOfInput) {
+		if (in == null) throw new IllegalArgumentException("null in");
+		if (out == null) throw new IllegalArgumentException("null out");
+		charOut = out;
+		try {
+			return encode(in, endOfInput);
+		} finally {
+			charOut = null;
+		}
+	}
+
+	/**
+	 * Whether the end of input has been indicated and all of the encoded data
+	 * has been written.
+	 * 
+	 * @return true iff the encoding is complete
+	 */
+
+	public boolean isComplete() {
+		return finished && pendingStart == pendingEnd;
+	}
+	
+	/**
+	 * Discards all state so that the encoder can be used to encode new data.
+	 * Internal buffers are retained, so an encoder that is repeatedly reset
+	 * and reused stops allocating memory once its buffers have grown to
+	 * accommodate the largest encoding.
+	 * 
+	 * @return this encoder
+	 */
+
+	public Radix4Encoder reset() {
+		pending = staging;
+		pendingStart = 0;
+		pendingEnd = 0;
+		column = 0;
+		finished = false;
+		if (radix4.metrics != null) start = System.nanoTime();
+		charCount = 0L;
+		lineBreakCount = 0L;
+		resetState();
+		return this;
+	}
+
+	// consumes input while there is room to stage its encoding
+	abstract void consume(ByteBuffer in);
+	
+	// stages the remainder of the encoding
+	abstract void finish();
+	
+	abstract void resetState();
+	
+	boolean hasRoom() {
+		return pendingEnd < stagingLimit;
+	}
+	
+	// stages an encoded char, preceded by a line break if one is due
+	void write(byte b) {
+		if (radix4.lineLength != Radix4Config.NO_LINE_BREAK) {
+			if (column == radix4.lineLength) {
+				byte[] lineBreak = radix4.lineBreakBytes;
+				for (int i = 0; i < lineBreak.length; i++) {
+					pending[pendingEnd++] = lineBreak[i];
+				}
+				column = 0;
+				lineBreakCount++;
+			}
+			column++;
+		}
+		pending[pendingEnd++] = b;
+	}
+	
+	// the number of chars output, including those staged but not yet written
+	long charCount() {
+		return charCount + pendingEnd - pendingStart;
+	}
+
+	// supplies complete output for writing
+	void writeAll(byte[] bytes, int length) {
+		pending = bytes;
+		pendingStart = 0;
+		pendingEnd = length;
+	}
+	
+	private CoderResult encode(ByteBuffer in, boolean endOfInput) {
+		if (finished && in.hasRemaining()) throw new IllegalStateException("input after end");
+		while (true) {
+			if (!drain()) return CoderResult.OVERFLOW;
+			if (in.hasRemaining()) {
+				consume(in);
+			} else if (endOfInput && !finished) {
+				finish();
+				finished = true;
+			} else {
+				return CoderResult.UNDERFLOW;
+			}
+		}
+	}
+	
+	// writes pending bytes to the output buffer, returning false if not all of them could be written
+	private boolean drain() {
+		int length = pendingEnd - pendingStart;
+		if (length == 0) return true;
+		if (byteOut != null) {
+			int count = Math.min(byteOut.remaining(), length);
+			byteOut.put(pending, pendingStart, count);
+			pendingStart += count;
+			charCount += count;
+		} else {
+			int count = Math.min(charOut.remaining(), length);
+			for (int i = 0; i < count; i++) {
+				charOut.put((char) pending[pendingStart++]);
+			}
+			charCount += count;
+		}
+		if (pendingStart < pendingEnd) return false;
+		pending = staging;
+		pendingStart = 0;
+		pendingEnd = 0;
+		return true;
+	}
+
+	final static class Stream extends Radix4Encoder {
+		
+		// the fused encoding table
+		private final short[] encodings;
+		// the encoding character set
+		private final byte[] chars;
+		// the chars encoding the current triple, index zero is unused
+		private final byte[] triple = new byte[4];
+		// accumulates the radices of byte triples
+		private int radix;
+		// index within the triple: 0, 1 or 2
+		private int index;
+		// whether a byte with a non-zero radix has yet to be encountered
+		private boolean radixFree;
+		// the number of bytes consumed, and of those that were radix free
+		private long byteCount;
+		private long radixFreeCount;
+
+		Stream(Radix4 radix4) {
+			// at most five chars are output at once: a partial triple and two terminators
+			super(radix4, 5);
+			encodings = radix4.encodings;
+			chars = radix4.mapping.chars;
+			resetState();
+		}
+		
+		@Override
+		void consume(ByteBuffer in) {
+			int from = in.position();
+			while (in.hasRemaining() && hasRoom()) {
+				// map the byte
+				int e = encodings[in.get() & 0xff];
+				if (radixFree) {
+					if (e <= 0xff) {
+						// still radix free
+						write((byte) e);
+						continue;
+					}
+					// no longer radix free
+					write(radix4.terminatorByte);
+					radixFree = false;
+					radixFreeCount = byteCount + in.position() - from - 1;
+				}
+				// append to the radix and increment counter
+				radix |= (e >> 8) << (6 - ((++index) << 1));
+				triple[index] = (byte) e;
+				// write a complete triple with its radix first
+				if (index == 3) {
+					write(chars[ radix ]);
+					write(triple[1]);
+					write(triple[2]);
+					write(triple[3]);
+					index = 0;
+					radix = 0;
+				}
+			}
+			byteCount += in.position() - from;
+		}
+
+		@Override
+		void finish() {
+			// write any partial triple
+			if (index != 0) {
+				write(chars[ radix ]);
+				for (int i = 1; i <= index; i++) {
+					write(triple[i]);
+				}
+			}
+			if (radix4.terminated) {
+				write(radix4.terminatorByte);
+				// a second terminator indicates the end of radix free (ie. all) bytes
+				if (radixFree) write(radix4.terminatorByte);
+			}
+			Radix4Metrics metrics = radix4.metrics;
+			if (metrics != null) {
+				long radixFreeBytes = radixFree ? byteCount : radixFreeCount;
+				metrics.encoded(byteCount, radixFreeBytes, charCount(), lineBreakCount, System.nanoTime() - start);
+			}
+		}
+		
+		@Override
+		void resetState() {
+			radix = 0;
+			index = 0;
+			radixFree = radix4.optimistic;
+			byteCount = 0L;
+			radixFreeCount = 0L;
+		}
+		
+	}
+	
+	final static class Block extends Radix4Encoder {
+
+		// accumulates all input prior to encoding, retained when reset
+		private byte[] bytes = new byte[radix4.bufferSize];
+		private ByteBuffer input = ByteBuffer.wrap(bytes);
+		private int length = 0;
+		// retains its output array when reused
+		private final Radix4BlockEncoder.BytesEncoder encoder = new Radix4BlockEncoder.BytesEncoder(radix4, true);
+		
+		Block(Radix4 radix4) {
+			super(radix4, 0);
+		}
+		
+		@Override
+		void consume(ByteBuffer in) {
+			int count = in.remaining();
+			if (length + count > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(length + count, bytes.length * 2));
+				input = ByteBuffer.wrap(bytes);
+			}
+			in.get(bytes, length, count);
+			length += count;
+		}
+		
+		@Override
+		void finish() {
+			input.limit(length).position(0);
+			writeAll(encoder.encode(input), encoder.length);
+		}
+		
+		@Override
+		void resetState() {
+			length = 0;
+		}
+		
+	}
+	
+}
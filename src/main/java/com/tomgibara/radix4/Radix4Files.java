@@ -0,0 +1,536 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CoderResult;
+
+/**
+ * Encodes and decodes whole files using Radix4 codings. Both the source and
+ * destination files are memory mapped, and the destination is sized in advance
+ * so that, in particular, block encoded radices can be written directly to
+ * their final positions; no buffer holding the whole file is needed. Files
+ * are mapped in segments, so their lengths are not limited to 2GB.
+ * 
+ * Instances of this class are safe for concurrent use by multiple threads.
+ * Unless otherwise indicated, passing a null parameter to any method of this
+ * class will raise an {@link IllegalArgumentException}.
+ * 
+ * @author tomgibara
+ * @see Radix4#files()
+ */
+
+public final class Radix4Files {
+
+	// files are mapped in segments of 1GB unless a smaller size is specified
+	static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+	// block codings are transferred in chunks of whole triples
+	private static final int CHUNK_SIZE = 3 << 12;
+
+	private final Radix4 radix4;
+	private final int segmentShift;
+	private final int segmentSize;
+	private final int segmentMask;
+	
+	Radix4Files(Radix4 radix4) {
+		this(radix4, DEFAULT_SEGMENT_SHIFT);
+	}
+	
+	Radix4Files(Radix4 radix4, int segmentShift) {
+		if (segmentShift < 0 || segmentShift > DEFAULT_SEGMENT_SHIFT) throw new IllegalArgumentException("invalid segment shift");
+		this.radix4 = radix4;
+		this.segmentShift = segmentShift;
+		segmentSize = 1 << segmentShift;
+		segmentMask = segmentSize - 1;
+	}
+	
+	/**
+	 * The definition of the Radix4 coding being used.
+	 * 
+	 * @return the Radix4 definition, never null
+	 */
+
+	public Radix4 getRadix4() {
+		return radix4;
+	}
+	
+	/**
+	 * Encodes the contents of one file into another. Any existing contents of
+	 * the destination file are replaced.
+	 * 
+	 * @param source
+	 *            the file containing the data to be encoded
+	 * @param destination
+	 *            the file to which the encoded data will be written
+	 * @return the length of the encoded data in bytes
+	 * @throws IOException
+	 *             if the source could not be read or the destination could
+	 *             not be written
+	 */
+
+	public long encode(File source, File destination) throws IOException {
+		if (source == null) throw new IllegalArgumentException("null source");
+		if (destination == null) throw new IllegalArgumentException("null destination");
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		try {
+			long byteLength = in.length();
+			ByteBuffer[] bytes = map(in, MapMode.READ_ONLY, byteLength);
+			long radixFreeLength = radix4.optimistic ? computeRadixFreeLength(bytes) : 0L;
+			long length = radix4.computeEncodedLength(byteLength, radixFreeLength);
+			RandomAccessFile out = new RandomAccessFile(destination, "rw");
+			try {
+				ByteBuffer[] chars = map(out, MapMode.READ_WRITE, length);
+				if (radix4.streaming) {
+					encodeStream(bytes, chars);
+				} else if (bytes.length == 1 && chars.length == 1) {
+					new Radix4BlockEncoder.BufferEncoder(radix4, chars[0]).encode(bytes[0]);
+				} else {
+					encodeBlock(bytes, chars, byteLength, radixFreeLength, length);
+				}
+			} finally {
+				out.close();
+			}
+			return length;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes the contents of one file into another. Any existing contents of
+	 * the destination file are replaced. For terminated stream codings, any
+	 * data following the end of the encoding is ignored.
+	 * 
+	 * @param source
+	 *            the file containing the data to be decoded
+	 * @param destination
+	 *            the file to which the decoded data will be written
+	 * @return the length of the decoded data in bytes
+	 * @throws IOException
+	 *             if the source could not be read or the destination could
+	 *             not be written
+	 * @throws IllegalArgumentException
+	 *             if the source does not contain valid Radix4 encoded data
+	 */
+
+	public long decode(File source, File destination) throws IOException {
+		if (source == null) throw new IllegalArgumentException("null source");
+		if (destination == null) throw new IllegalArgumentException("null destination");
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		try {
+			long length = in.length();
+			ByteBuffer[] chars = map(in, MapMode.READ_ONLY, length);
+			return radix4.streaming ? decodeStream(chars, length, destination) : decodeBlock(chars, length, destination);
+		} finally {
+			in.close();
+		}
+	}
+	
+	// the stream encoder is incremental, so segments are simply supplied in turn
+	private void encodeStream(ByteBuffer[] bytes, ByteBuffer[] chars) {
+		Radix4Encoder encoder = new Radix4Encoder.Stream(radix4);
+		int i = 0;
+		int o = 0;
+		while (true) {
+			boolean last = i == bytes.length - 1;
+			CoderResult result = encoder.encode(bytes[i], chars[o], last);
+			if (result.isOverflow()) {
+				o++;
+			} else if (last) {
+				break;
+			} else {
+				i++;
+			}
+		}
+	}
+	
+	// encodes the block a chunk at a time through the block encoder's kernels, for files too long
+	// to be encoded in a single buffer; chunks hold whole triples, so radices are never split
+	private void encodeBlock(ByteBuffer[] bytes, ByteBuffer[] chars, long byteLength, long radixFreeLength, long length) {
+		Radix4Metrics metrics = radix4.metrics;
+		long start = metrics == null ? 0L : System.nanoTime();
+		Radix4BlockEncoder.BytesEncoder kernels = new Radix4BlockEncoder.BytesEncoder(radix4);
+		boolean separated = radix4.optimistic && (radixFreeLength < byteLength || radix4.terminated);
+		byte[] in = new byte[CHUNK_SIZE];
+		byte[] out = new byte[CHUNK_SIZE + CHUNK_SIZE / 3];
+		Output data = new Output(chars, 0L);
+		
+		// the radix free bytes, indicating their end unless it's unnecessary
+		for (long i = 0L; i < radixFreeLength; ) {
+			int n = (int) Math.min(CHUNK_SIZE, radixFreeLength - i);
+			get(bytes, i, in, 0, n);
+			kernels.encodeRadixFree(in, 0, n, out, 0);
+			data.write(out, 0, n);
+			i += n;
+		}
+		if (separated) data.write(radix4.terminatorByte);
+
+		// then the data of the remaining bytes, with their radices written directly to their final positions
+		Output radices = new Output(chars, data.index + byteLength - radixFreeLength);
+		for (long i = radixFreeLength; i < byteLength; ) {
+			int n = (int) Math.min(CHUNK_SIZE, byteLength - i);
+			get(bytes, i, in, 0, n);
+			kernels.encodeTriples(in, 0, n, out, 0, n);
+			data.write(out, 0, n);
+			radices.write(out, n, (n + 2) / 3);
+			i += n;
+		}
+
+		// finally terminate if necessary
+		if (radix4.terminated) radices.write(radix4.terminatorByte);
+
+		if (metrics != null) {
+			metrics.encoded(byteLength, radixFreeLength, length, data.lineBreaks + radices.lineBreaks, System.nanoTime() - start);
+		}
+	}
+	
+	private long decodeStream(ByteBuffer[] chars, long length, File destination) throws IOException {
+		// count the decoded bytes so that the destination can be sized
+		int term = radix4.terminator;
+		boolean radixFree = radix4.optimistic;
+		long size = 0L;
+		// 0 when expecting a radix, otherwise the index of the next char in the triple
+		int index = 0;
+		byte[] buffer = new byte[CHUNK_SIZE];
+		counting: for (long p = 0L; p < length; ) {
+			int n = (int) Math.min(CHUNK_SIZE, length - p);
+			get(chars, p, buffer, 0, n);
+			p += n;
+			for (int i = 0; i < n; i++) {
+				int c = buffer[i] & 0xff;
+				if (c == term) {
+					if (!radixFree) break counting;
+					radixFree = false;
+				} else if (!radix4.isWhitespace(c)) {
+					if (radixFree) {
+						size++;
+					} else if (index == 0) {
+						index = 1;
+					} else {
+						size++;
+						index = index == 3 ? 0 : index + 1;
+					}
+				}
+			}
+		}
+		
+		RandomAccessFile out = new RandomAccessFile(destination, "rw");
+		try {
+			ByteBuffer[] bytes = map(out, MapMode.READ_WRITE, size);
+			Radix4Decoder decoder = new Radix4Decoder.Stream(radix4);
+			// counting moved the segment positions
+			for (ByteBuffer segment : chars) {
+				segment.rewind();
+			}
+			// the decoder is incremental, so segments are simply supplied in turn
+			int i = 0;
+			int o = 0;
+			while (true) {
+				boolean last = i == chars.length - 1;
+				CoderResult result = decoder.decode(chars[i], bytes[o], last);
+				if (decoder.isComplete()) break;
+				if (result.isOverflow()) {
+					if (++o == bytes.length) throw invalid("invalid encoding");
+				} else if (last) {
+					throw invalid("invalid encoding");
+				} else {
+					i++;
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return size;
+	}
+	
+	// mirrors Radix4BlockDecoder, but skips whitespace as each chunk is read instead of stripping it beforehand
+	private long decodeBlock(ByteBuffer[] chars, long rawLength, File destination) throws IOException {
+		Radix4Metrics metrics = radix4.metrics;
+		long start = metrics == null ? 0L : System.nanoTime();
+		byte term = radix4.terminatorByte;
+		byte[] decodings = radix4.decodings;
+		byte[] buffer = new byte[CHUNK_SIZE];
+		
+		// count the non-whitespace chars and locate the last two terminators among them
+		long count = 0L;
+		long lastTerm = -1L;
+		long prevTerm = -1L;
+		for (long p = 0L; p < rawLength; ) {
+			int n = (int) Math.min(CHUNK_SIZE, rawLength - p);
+			get(chars, p, buffer, 0, n);
+			p += n;
+			for (int i = 0; i < n; i++) {
+				// runs of encoding characters are counted whole
+				int k = Radix4BlockDecoder.skipEncoded(decodings, buffer, i, n);
+				count += k - i;
+				if (k == n) break;
+				byte c = buffer[k];
+				if (decodings[c & 0xff] != -2) {
+					if (c == term) {
+						prevTerm = lastTerm;
+						lastTerm = count;
+					}
+					count++;
+				}
+				i = k;
+			}
+		}
+		
+		long length = count;
+		if (radix4.terminated) {
+			if (lastTerm == -1L || lastTerm != length - 1) throw invalid("missing terminator");
+			length--;
+			lastTerm = prevTerm;
+		}
+		long firstRadix;
+		int termLength;
+		if (radix4.optimistic && lastTerm != -1L) {
+			firstRadix = lastTerm;
+			termLength = 1;
+		} else if (radix4.optimistic) {
+			firstRadix = length;
+			termLength = 0;
+		} else {
+			firstRadix = 0L;
+			termLength = 0;
+		}
+		
+		// successful optimism with redundant marker
+		if (firstRadix == length - 1) length = firstRadix; 
+
+		// compute the size of the output
+		long size;
+		long len;
+		if (firstRadix == length) {
+			size = length;
+			len = 0L;
+		} else {
+			len = length - firstRadix - termLength;
+			if ((len & 3) == 1) throw invalid("invalid length");
+			len = len * 3 / 4;
+			size = firstRadix + len;
+		}
+		
+		RandomAccessFile out = new RandomAccessFile(destination, "rw");
+		try {
+			ByteBuffer[] bytes = map(out, MapMode.READ_WRITE, size);
+			// the kernels decode from a chunk of data chars followed by their radices
+			byte[] in = new byte[CHUNK_SIZE + CHUNK_SIZE / 3];
+			byte[] decoded = new byte[CHUNK_SIZE];
+			Radix4BlockDecoder.BytesDecoder kernels = new Radix4BlockDecoder.BytesDecoder(radix4, in, false);
+			Input data = new Input(chars, 0L, rawLength);
+			try {
+				// transfer radix free bytes
+				for (long i = 0L; i < firstRadix; ) {
+					int n = (int) Math.min(CHUNK_SIZE, firstRadix - i);
+					data.read(in, 0, n);
+					kernels.decodeRadixFree(decoded, 0, 0, n);
+					put(bytes, i, decoded, 0, n);
+					i += n;
+				}
+				
+				// transfer radix encoded bytes
+				if (len > 0L) {
+					// skip the terminator
+					if (termLength != 0) data.read(in, 0, termLength);
+					// locate the radices by counting back from the end
+					long offset = rawLength;
+					for (long k = count - (size + termLength); k > 0L; ) {
+						int n = (int) Math.min(CHUNK_SIZE, offset);
+						get(chars, offset - n, buffer, 0, n);
+						int i = n;
+						while (k > 0L && i > 0) {
+							if (decodings[buffer[--i] & 0xff] != -2) k--;
+						}
+						offset -= n - i;
+					}
+					Input radices = new Input(chars, offset, rawLength);
+					for (long i = 0L; i < len; ) {
+						int n = (int) Math.min(CHUNK_SIZE, len - i);
+						data.read(in, 0, n);
+						radices.read(in, CHUNK_SIZE, (n + 2) / 3);
+						kernels.decodeRadixed(decoded, 0, 0, CHUNK_SIZE, 0, n);
+						put(bytes, firstRadix + i, decoded, 0, n);
+						i += n;
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// the kernels only identify the character within the chunk
+				throw invalid("invalid character");
+			}
+		} finally {
+			out.close();
+		}
+		if (metrics != null) metrics.decoded(rawLength, rawLength - count, size, System.nanoTime() - start);
+		return size;
+	}
+	
+	// reports an invalid encoding to any metrics
+	private IllegalArgumentException invalid(String message) {
+		if (radix4.metrics != null) radix4.metrics.rejected();
+		return new IllegalArgumentException(message);
+	}
+	
+	// the number of leading radix free bytes across all segments
+	private long computeRadixFreeLength(ByteBuffer[] bytes) {
+		long length = 0L;
+		for (ByteBuffer buffer : bytes) {
+			int radixFreeLength = radix4.computeRadixFreeLength(buffer);
+			length += radixFreeLength;
+			if (radixFreeLength < buffer.limit()) break;
+		}
+		return length;
+	}
+
+	// files are mapped in segments so that their lengths are not limited to that of a single buffer;
+	// characters are transferred between the segments and arrays in bulk, moving segment positions
+
+	private void get(ByteBuffer[] buffers, long i, byte[] bs, int off, int len) {
+		while (len > 0) {
+			ByteBuffer buffer = buffers[(int) (i >>> segmentShift)];
+			int p = (int) i & segmentMask;
+			int n = Math.min(len, buffer.limit() - p);
+			buffer.position(p);
+			buffer.get(bs, off, n);
+			i += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void put(ByteBuffer[] buffers, long i, byte[] bs, int off, int len) {
+		while (len > 0) {
+			ByteBuffer buffer = buffers[(int) (i >>> segmentShift)];
+			int p = (int) i & segmentMask;
+			int n = Math.min(len, buffer.limit() - p);
+			buffer.position(p);
+			buffer.put(bs, off, n);
+			i += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	// maps a file as one or more segments, setting its length when writable
+	private ByteBuffer[] map(RandomAccessFile file, MapMode mode, long length) throws IOException {
+		if (mode == MapMode.READ_WRITE) file.setLength(length);
+		FileChannel channel = file.getChannel();
+		ByteBuffer[] buffers = new ByteBuffer[Math.max(1, (int) ((length + segmentMask) >>> segmentShift))];
+		for (int i = 0; i < buffers.length; i++) {
+			long position = (long) i << segmentShift;
+			buffers[i] = channel.map(mode, position, Math.min(segmentSize, length - position));
+		}
+		return buffers;
+	}
+	
+	// writes characters across segments from a character index, inserting line breaks
+	private final class Output {
+		
+		private final ByteBuffer[] buffers;
+		private final int lineLength = radix4.lineLength;
+		private final byte[] lineBreakBytes = radix4.lineBreakBytes;
+		private final boolean breakLines = lineLength != Radix4Config.NO_LINE_BREAK;
+		private final byte[] single = new byte[1];
+		// the index of the next character, ignoring line breaks
+		long index;
+		long lineBreaks = 0L;
+		
+		Output(ByteBuffer[] buffers, long index) {
+			this.buffers = buffers;
+			this.index = index;
+		}
+		
+		void write(byte c) {
+			single[0] = c;
+			write(single, 0, 1);
+		}
+		
+		// each line break is written with the character that follows it
+		void write(byte[] bs, int off, int len) {
+			while (len > 0) {
+				int n = len;
+				long position = index;
+				if (breakLines) {
+					int column = (int) (index % lineLength);
+					position += index / lineLength * lineBreakBytes.length;
+					if (column == 0 && index > 0L) {
+						put(buffers, position - lineBreakBytes.length, lineBreakBytes, 0, lineBreakBytes.length);
+						lineBreaks++;
+					}
+					n = Math.min(n, lineLength - column);
+				}
+				put(buffers, position, bs, off, n);
+				index += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+	}
+	
+	// reads the characters that are not whitespace across segments, from a position
+	private final class Input {
+		
+		private final ByteBuffer[] buffers;
+		private final long limit;
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		// the position of the next chunk
+		private long position;
+		private int index = 0;
+		private int end = 0;
+		
+		Input(ByteBuffer[] buffers, long position, long limit) {
+			this.buffers = buffers;
+			this.position = position;
+			this.limit = limit;
+		}
+		
+		void read(byte[] bs, int off, int len) {
+			byte[] decodings = radix4.decodings;
+			while (len > 0) {
+				if (index == end) {
+					end = (int) Math.min(CHUNK_SIZE, limit - position);
+					get(buffers, position, buffer, 0, end);
+					position += end;
+					index = 0;
+				}
+				// runs of encoding characters are copied whole
+				int k = Radix4BlockDecoder.skipEncoded(decodings, buffer, index, Math.min(end, index + len));
+				int n = k - index;
+				System.arraycopy(buffer, index, bs, off, n);
+				off += n;
+				len -= n;
+				index = k;
+				if (len > 0 && index < end) {
+					if (decodings[buffer[index] & 0xff] != -2) {
+						bs[off++] = buffer[index];
+						len--;
+					}
+					index++;
+				}
+			}
+		}
+		
+	}
+	
+}
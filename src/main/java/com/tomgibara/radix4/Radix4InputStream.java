@@ -18,64 +18,91 @@ package com.tomgibara.radix4;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 
 abstract class Radix4InputStream extends InputStream {
 
-	private final Radix4 radix4;
-	private final int[] decmap;
+	final Radix4 radix4;
+	private final byte[] unmappings;
 	private final int termChar;
+	// characters read ahead from the underlying source
+	final char[] buffer;
+	// position at which to read the next char from the buffer
+	private int position = 0;
+	// the number of chars available in the buffer
+	private int limit = 0;
 	private boolean radixFree;
 	private int i = 0;
 	private int j = 3;
 	private int[] bs = new int[3];
+	// the number of bytes decoded from the stream
+	private long byteCount = 0L;
+	// the number of characters read from the underlying source
+	private long charCount = 0L;
+	// the number of whitespace characters skipped
+	private long whitespaceCount = 0L;
+	// whether the end of the stream has been reported to any metrics
+	private boolean finished = false;
+	// when metrics are recorded, the time at which the stream was created
+	private final long start;
 	
 	Radix4InputStream(Radix4 radix4) {
 		this.radix4 = radix4;
-		decmap = radix4.mapping.decmap;
+		unmappings = radix4.unmappings;
 		termChar = radix4.terminator;
+		buffer = new char[radix4.bufferSize];
 		radixFree = radix4.optimistic;
+		start = radix4.metrics == null ? 0L : System.nanoTime();
 	}
 
 	@Override
 	public int read() throws IOException {
-		if (i == j) return -1;
+		if (i == j) {
+			finish();
+			return -1;
+		}
 		if (radixFree) {
 			int b = lookupNonWS();
 			switch (b) {
 			case -1: // eos
-				if (radix4.terminated) throw new IOException("unexpected end of stream");
+				if (radix4.terminated) throw invalid("unexpected end of stream");
 				j = 0;
 				break;
 			case -3: // terminator - end of radix free
 				radixFree = false;
 				break; // falling through to decoding
 				default: // just unmap and return
-					return decmap[b];
+					byteCount++;
+					return unmappings[b] & 0xff;
 			}
 		}
 		if (i == 0) {
 			int radix = lookupNonWS();
 			if (radix < 0) {
 				// check for premature eos
-				if (radix == -1 && radix4.terminated) throw new IOException("unexpected end of stream");
-				if (radix == -3 && !radix4.terminated) throw new IOException("unexpected terminator");
+				if (radix == -1 && radix4.terminated) throw invalid("unexpected end of stream");
+				if (radix == -3 && !radix4.terminated) throw invalid("unexpected terminator");
 				j = 0;
+				end();
+				finish();
 				return -1;
 			}
 			int b0 = lookupNonWS();
 			//TODO need to distinguish termination & eos
 			//TODO check for terminator too?
-			if (b0 == -1) throw new IOException("unexpected end of stream");
+			if (b0 == -1) throw invalid("unexpected end of stream");
 			bs[0] = b0 | ((radix << 2) & 0xc0);
 			int b1 = lookupNonWS();
 			if (b1 < 0) {
 				j = 1;
+				end();
 			} else {
 				bs[1] = b1 | ((radix << 4) & 0xc0);
 				int b2 = lookupNonWS();
 				if (b2 < 0) {
 					j = 2;
+					end();
 				} else {
 					bs[2] = b2 | ((radix << 6) & 0xc0);
 				}
@@ -83,11 +110,113 @@ abstract class Radix4InputStream extends InputStream {
 		}
 		int b = bs[i];
 		if (++i == 3) i = 0;
+		byteCount++;
 		// unmap the byte
-		return decmap[b];
+		return unmappings[b] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (b == null) throw new NullPointerException();
+		if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+		if (len == 0) return 0;
+
+		int p = off;
+		int end = off + len;
+		while (p < end) {
+			int q = p;
+			// the buffer is always empty once the end has been reached, so the fast paths can ignore it
+			if (radixFree) {
+				// decode radix free chars directly from the buffer
+				while (p < end && position < limit) {
+					int v = radix4.lookupByte(buffer[position]);
+					if (v < 0) {
+						// skip whitespace, leave everything else to the byte-wise path
+						if (v != -2) break;
+						position++;
+						whitespaceCount++;
+					} else {
+						b[p++] = unmappings[v];
+						position++;
+					}
+				}
+			} else if (i == 0) {
+				// decode whole triples directly from the buffer
+				while (end - p >= 3 && limit - position >= 4) {
+					int radix = radix4.lookupByte(buffer[position    ]);
+					int b0    = radix4.lookupByte(buffer[position + 1]);
+					int b1    = radix4.lookupByte(buffer[position + 2]);
+					int b2    = radix4.lookupByte(buffer[position + 3]);
+					// whitespace, terminators and invalid chars are left to the byte-wise path
+					if ((radix | b0 | b1 | b2) < 0) break;
+					b[p    ] = unmappings[b0 | ((radix << 2) & 0xc0)];
+					b[p + 1] = unmappings[b1 | ((radix << 4) & 0xc0)];
+					b[p + 2] = unmappings[b2 | ((radix << 6) & 0xc0)];
+					p += 3;
+					position += 4;
+				}
+			}
+			byteCount += p - q;
+			if (p == end) break;
+			// don't block if we've already read something
+			if (p > off && i == 0 && position == limit) break;
+			// decode the next byte the slow way
+			int r = read();
+			if (r < 0) break;
+			b[p++] = (byte) r;
+		}
+		return p == off ? -1 : p - off;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		if (i == j) return 0;
+		// bytes remaining from a partially read triple
+		int count = i == 0 ? 0 : j - i;
+		// bytes that can be decoded from the buffer without blocking
+		int chars = 0;
+		for (int k = position; k < limit; k++) {
+			int v = radix4.lookupByte(buffer[k]);
+			if (v == -2) continue;
+			if (v < 0) break;
+			chars++;
+		}
+		return count + (radixFree ? chars : chars / 4 * 3);
+	}
+	
+	// overrides InputStream.transferTo() where it is available
+	public long transferTo(OutputStream out) throws IOException {
+		if (out == null) throw new NullPointerException();
+		byte[] bytes = new byte[Math.max(buffer.length, 3)];
+		long count = 0L;
+		while (true) {
+			int r = read(bytes, 0, bytes.length);
+			if (r < 0) break;
+			out.write(bytes, 0, r);
+			count += r;
+		}
+		return count;
 	}
 
-	abstract int readChar() throws IOException;
+	// fills the buffer from position zero, returning the number of chars read or -1 at the end of the stream
+	abstract int fill(char[] buffer) throws IOException;
+	
+	// returns the specified number of chars from the end of the last fill to the underlying source, if possible
+	abstract void unread(int count) throws IOException;
+	
+	private int readChar() throws IOException {
+		if (position == limit) {
+			int r;
+			do {
+				r = fill(buffer);
+			} while (r == 0);
+			if (r < 0) return -1;
+			charCount += r;
+			position = 0;
+			limit = r;
+		}
+		return buffer[position++];
+	}
 	
 	private int lookupNonWS() throws IOException {
 		while (true) {
@@ -95,24 +224,80 @@ abstract class Radix4InputStream extends InputStream {
 			if (c == -1) return -1;
 			if (c == termChar) return -3;
 			int b = radix4.lookupByte(c);
-			if (b == -1) throw new IOException("invalid character");
-			if (b == -2) continue;
+			if (b == -1) throw invalid("invalid character");
+			if (b == -2) {
+				whitespaceCount++;
+				continue;
+			}
 			return b;
 		}
 	}
+
+	// called when the end of the encoded data has been reached
+	private void end() throws IOException {
+		int surplus = limit - position;
+		position = limit;
+		charCount -= surplus;
+		// anything after a terminator belongs to whoever reads the source next
+		if (surplus > 0 && radix4.terminated) unread(surplus);
+	}
+
+	// called when the last byte has been read, reports the decoding to any metrics
+	private void finish() {
+		if (finished) return;
+		finished = true;
+		Radix4Metrics metrics = radix4.metrics;
+		if (metrics != null) metrics.decoded(charCount, whitespaceCount, byteCount, System.nanoTime() - start);
+	}
+
+	// reports an invalid encoding to any metrics
+	private IOException invalid(String message) {
+		if (radix4.metrics != null) radix4.metrics.rejected();
+		return new IOException(message);
+	}
 	
 	final static class ByteStream extends Radix4InputStream {
 
 		private final InputStream in;
+		private final byte[] bytes;
+		// whether we can read ahead of a terminator and then return the surplus
+		private final boolean marking;
+		// the number of bytes read since the stream was marked
+		private int marked = 0;
 
 		public ByteStream(Radix4 radix4, InputStream in) {
 			super(radix4);
 			this.in = in;
+			bytes = new byte[buffer.length];
+			marking = radix4.terminated && in.markSupported();
+		}
+		
+		@Override
+		int fill(char[] buffer) throws IOException {
+			// must not read past a terminator unless we can step back
+			int length = radix4.terminated && !marking ? 1 : bytes.length;
+			if (marking) in.mark(length);
+			int r = in.read(bytes, 0, length);
+			for (int k = 0; k < r; k++) {
+				buffer[k] = (char) (bytes[k] & 0xff);
+			}
+			marked = r;
+			return r;
 		}
 		
 		@Override
-		int readChar() throws IOException {
-			return in.read();
+		void unread(int count) throws IOException {
+			if (!marking) return;
+			in.reset();
+			long n = marked - count;
+			while (n > 0) {
+				long s = in.skip(n);
+				if (s <= 0) {
+					if (in.read() < 0) break;
+					s = 1;
+				}
+				n -= s;
+			}
 		}
 		
 	}
@@ -120,16 +305,42 @@ abstract class Radix4InputStream extends InputStream {
 	final static class CharStream extends Radix4InputStream {
 
 		private final Reader reader;
+		// whether we can read ahead of a terminator and then return the surplus
+		private final boolean marking;
+		// the number of chars read since the reader was marked
+		private int marked = 0;
 		
 		CharStream(Radix4 radix4, Reader reader) {
 			super(radix4);
 			this.reader = reader;
+			marking = radix4.terminated && reader.markSupported();
 		}
 		
 		@Override
-		int readChar() throws IOException {
-			return reader.read();
+		int fill(char[] buffer) throws IOException {
+			// must not read past a terminator unless we can step back
+			int length = radix4.terminated && !marking ? 1 : buffer.length;
+			if (marking) reader.mark(length);
+			int r = reader.read(buffer, 0, length);
+			marked = r;
+			return r;
 		}
+		
+		@Override
+		void unread(int count) throws IOException {
+			if (!marking) return;
+			reader.reset();
+			long n = marked - count;
+			while (n > 0) {
+				long s = reader.skip(n);
+				if (s <= 0) {
+					if (reader.read() < 0) break;
+					s = 1;
+				}
+				n -= s;
+			}
+		}
+
 	}
 
 	final static class Chars extends Radix4InputStream {
@@ -146,9 +357,23 @@ abstract class Radix4InputStream extends InputStream {
 		}
 		
 		@Override
-		int readChar() throws IOException {
+		int fill(char[] buffer) throws IOException {
 			if (position >= length) return -1;
-			return chars.charAt(position++);
+			int count = Math.min(buffer.length, length - position);
+			if (chars instanceof String) {
+				((String) chars).getChars(position, position + count, buffer, 0);
+			} else {
+				for (int k = 0; k < count; k++) {
+					buffer[k] = chars.charAt(position + k);
+				}
+			}
+			position += count;
+			return count;
+		}
+		
+		@Override
+		void unread(int count) throws IOException {
+			position -= count;
 		}
 		
 	}
@@ -0,0 +1,86 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+/**
+ * Receives measurements of the encoding and decoding performed by Radix4
+ * codings. Metrics are registered with
+ * {@link Radix4Config#setMetrics(Radix4Metrics)}; when none are registered,
+ * no measurements are taken.
+ * 
+ * Measurements are totalled over a whole operation by the coding, and each
+ * method is called once per operation: when a block or file is encoded or
+ * decoded, when a stream is closed or reaches the end of its input, or when an
+ * incremental encoder or decoder (and so a channel) completes. Since codings may
+ * be used by many threads at once, implementations must be safe for
+ * concurrent use; they should aggregate cheaply (with atomic or striped
+ * counters, for example) and should not throw exceptions.
+ * 
+ * @author tomgibara
+ * 
+ */
+
+public interface Radix4Metrics {
+
+	/**
+	 * Records a completed encoding.
+	 * 
+	 * @param bytes
+	 *            the number of bytes encoded
+	 * @param radixFreeBytes
+	 *            the number of leading bytes that were encoded without radices
+	 * @param chars
+	 *            the number of characters output, including line breaks and
+	 *            terminators
+	 * @param lineBreaks
+	 *            the number of line breaks output
+	 * @param nanos
+	 *            the time taken by the operation in nanoseconds; for streams,
+	 *            the time from creation to closing, and for incremental
+	 *            stream encoders, from creation or reset to completion
+	 */
+
+	void encoded(long bytes, long radixFreeBytes, long chars, long lineBreaks, long nanos);
+
+	/**
+	 * Records a completed decoding.
+	 * 
+	 * @param chars
+	 *            the number of characters read, including whitespace and
+	 *            terminators
+	 * @param whitespace
+	 *            the number of whitespace characters skipped
+	 * @param bytes
+	 *            the number of bytes decoded
+	 * @param nanos
+	 *            the time taken by the operation in nanoseconds; for streams,
+	 *            the time from creation to reaching the end of the input, and
+	 *            for incremental stream decoders, from creation or reset to
+	 *            completion
+	 */
+
+	void decoded(long chars, long whitespace, long bytes, long nanos);
+
+	/**
+	 * Records a decoding that failed because its input was not a valid
+	 * encoding, for example because it contained an invalid character or
+	 * ended unexpectedly.
+	 */
+
+	void rejected();
+
+}
@@ -23,68 +23,107 @@ import java.io.Writer;
 abstract class Radix4OutputStream extends OutputStream {
 
 	final Radix4 radix4;
-	// the encoding map
-	final int[] encmap;
+	// the fused encoding table
+	final short[] encodings;
 	// the encoding character set
 	final byte[] chars;
 	// size of the buffer in bytes
 	final int bufferSize;
+	// buffers encoded characters as ASCII bytes
+	final byte[] buffer;
 	// accumulates the radices of byte triples
 	private int radix = 0;
 	// position at which to write next byte into buffer
 	private int position = 0;
-	// the number of non-whitespace bytes written - used to track line breaking
-	private long count = 0;
+	// the number of characters written to the current line, a line break is pending when it is full
+	private int column = 0;
 	// index within the triple: 0,1 or 2 -- rogue value of 3 when closed
 	private int index = 0;
 	// whether a byte with a non-zero radix has yet to be encountered
 	private boolean radixFree;
+	// the number of bytes written to the stream
+	private long byteCount = 0L;
+	// the number of bytes written before the first byte with a radix
+	private long radixFreeCount = 0L;
+	// the number of characters output, excluding line breaks
+	private long charCount = 0L;
+	// the number of line breaks output
+	private long lineBreakCount = 0L;
+	// when metrics are recorded, the time at which the stream was created
+	private final long start;
 	
 	Radix4OutputStream(Radix4 radix4) {
 		this.radix4 = radix4;
-		this.encmap = radix4.mapping.encmap;
+		this.encodings = radix4.encodings;
 		this.chars = radix4.mapping.chars;
 		// set bufferSize to a multiple of 4
 		// this way we avoid having to move remaining bytes around inside the buffer
 		this.bufferSize = (radix4.bufferSize + 3) & 0xfffffffc;
+		this.buffer = new byte[bufferSize];
 		this.radixFree = radix4.optimistic;
+		this.start = radix4.metrics == null ? 0L : System.nanoTime();
 	}
 
 	@Override
 	public void write(int b) throws IOException {
 		// watch for close
 		if (index == 3) throw new IOException("stream closed");
-		// map the byte
-		b = encmap[b & 0xff];
-		int c = b & 0x3f;
+		encode(b);
+		byteCount++;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (b == null) throw new NullPointerException();
+		if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+		// watch for close
+		if (index == 3) throw new IOException("stream closed");
+
+		int i = off;
+		int end = off + len;
+		
+		// first deal with any radix free bytes
 		if (radixFree) {
-			if (c == b) {
-				// still radix free
-				bufferByte(position++, chars[ c ]);
-			} else {
-				// no longer radix free
-				flushBufferWithTerm();
-				radixFree = false;
+			while (i < end) {
+				int e = encodings[b[i] & 0xff];
+				// stop at the first byte with a radix
+				if (e > 0xff) break;
+				buffer[position++] = (byte) e;
+				if (position == bufferSize) flushBuffer();
+				i++;
 			}
+			// no longer radix free, let the byte-wise path switch modes
+			if (i < end) encode(b[i++]);
 		}
-		if (!radixFree) {
-			// make room for radices
-			if (index == 0) position++;
-			// check if still radix free
-			bufferByte(position++, chars[ c ]);
-			// append to the radix and increment counter
-			radix |= (b & 0xc0) >> ((++index) << 1);
-			// store the radix when full and reset counter
-			if (index == 3) {
-				bufferByte(position - 4, chars[ radix ]);
-				index = 0;
-				radix = 0;
+		
+		// complete any partial triple
+		while (index != 0 && i < end) {
+			encode(b[i++]);
+		}
+		
+		// then encode whole triples directly into the buffer
+		// the position is always a multiple of 4 here, and so is the buffer size
+		while (end - i >= 3) {
+			int limit = Math.min(position + (end - i) / 3 * 4, bufferSize);
+			while (position < limit) {
+				int e0 = encodings[b[i    ] & 0xff];
+				int e1 = encodings[b[i + 1] & 0xff];
+				int e2 = encodings[b[i + 2] & 0xff];
+				buffer[position    ] = chars[ (e0 >> 8) << 4 | (e1 >> 8) << 2 | e2 >> 8 ];
+				buffer[position + 1] = (byte) e0;
+				buffer[position + 2] = (byte) e1;
+				buffer[position + 3] = (byte) e2;
+				position += 4;
+				i += 3;
 			}
+			if (position == bufferSize) flushBuffer();
 		}
-		// if the buffer's full, empty it
-		if (position == bufferSize) {
-			flushBuffer();
+		
+		// finally deal with any trailing bytes
+		while (i < end) {
+			encode(b[i++]);
 		}
+		byteCount += len;
 	}
 	
 	@Override
@@ -98,11 +137,11 @@ abstract class Radix4OutputStream extends OutputStream {
 	public void close() throws IOException {
 		// write back the radix
 		if (index != 0) {
-			bufferByte(position - index - 1, chars[ radix ]);
+			buffer[position - index - 1] = chars[ radix ];
 		}
 		if (radix4.terminated) {
 			// must be space in buffer here because write() never leaves it full
-			bufferByte(position++, radix4.terminatorByte);
+			buffer[position++] = radix4.terminatorByte;
 			// if necessary, insert a second terminator to indicate end of radix free (ie. all) bytes
 			if (radixFree) {
 				flushBufferWithTerm();
@@ -117,39 +156,86 @@ abstract class Radix4OutputStream extends OutputStream {
 		}
 		// set index to a rogue value indicating that the stream is closed
 		index = 3;
+		Radix4Metrics metrics = radix4.metrics;
+		if (metrics != null) {
+			long radixFreeBytes = radixFree ? byteCount : radixFreeCount;
+			long encodedChars = charCount + lineBreakCount * radix4.lineBreakBytes.length;
+			metrics.encoded(byteCount, radixFreeBytes, encodedChars, lineBreakCount, System.nanoTime() - start);
+		}
 	}
 
+	private void encode(int b) throws IOException {
+		// map the byte
+		int e = encodings[b & 0xff];
+		if (radixFree) {
+			if (e <= 0xff) {
+				// still radix free
+				buffer[position++] = (byte) e;
+			} else {
+				// no longer radix free
+				radixFreeCount = charCount + position;
+				flushBufferWithTerm();
+				radixFree = false;
+			}
+		}
+		if (!radixFree) {
+			// make room for radices
+			if (index == 0) position++;
+			// check if still radix free
+			buffer[position++] = (byte) e;
+			// append to the radix and increment counter
+			radix |= (e >> 8) << (6 - ((++index) << 1));
+			// store the radix when full and reset counter
+			if (index == 3) {
+				buffer[position - 4] = chars[ radix ];
+				index = 0;
+				radix = 0;
+			}
+		}
+		// if the buffer's full, empty it
+		if (position == bufferSize) {
+			flushBuffer();
+		}
+	}
+	
 	private void flushBufferWithTerm() throws IOException {
 		// unlucky case - buffer is full, we need to flush twice
 		if (position == bufferSize) flushBuffer();
-		bufferByte(position++, radix4.terminatorByte);
+		buffer[position++] = radix4.terminatorByte;
 		flushBuffer();
 	}
 	
 	// always called with index equal to zero; unless closing - in which case we don't care that radix may be flushed incomplete
 	private void flushBuffer() throws IOException {
 		if (position == 0) return;
+		charCount += position;
 		int lineLength = radix4.lineLength;
 		if (lineLength == Radix4Config.NO_LINE_BREAK) {
 			writeBuffer(0, position);
 		} else {
 			int last = 0;
-			int offset = (int) (count % lineLength);
-			int start = offset == 0 && count != 0 ? 0 : lineLength - offset;
+			int start = lineLength - column;
 			while (start < position) {
 				writeBuffer(last, start);
 				writeLineBreak();
+				lineBreakCount++;
 				last = start;
 				start += lineLength;
 			}
 			writeBuffer(last, position);
-			count += position;
+			// the next break is always due at start
+			column = lineLength - (start - position);
 		}
 		position = 0;
 	}
 	
-	abstract void bufferByte(int i, byte b);
-
+	// copies buffered ASCII bytes into a char array at the same indices
+	void widen(char[] target, int from, int to) {
+		for (int i = from; i < to; i++) {
+			target[i] = (char) buffer[i];
+		}
+	}
+	
 	abstract void writeBuffer(int from, int to) throws IOException;
 	
 	abstract void writeLineBreak() throws IOException;
@@ -162,17 +248,10 @@ abstract class Radix4OutputStream extends OutputStream {
 	static final class ByteStream extends Radix4OutputStream {
 
 		private final OutputStream out;
-		private final byte[] buffer;
 		
 		ByteStream(Radix4 radix4, OutputStream out) {
 			super(radix4);
 			this.out = out;
-			buffer = new byte[bufferSize];
-		}
-
-		@Override
-		void bufferByte(int i, byte b) {
-			buffer[i] = b;
 		}
 
 		@Override
@@ -199,23 +278,19 @@ abstract class Radix4OutputStream extends OutputStream {
 	
 	static final class CharStream extends Radix4OutputStream {
 
-		private final char[] buffer;
+		private final char[] charBuffer;
 		private final Writer writer;
 
 		CharStream(Radix4 radix4, Writer writer) {
 			super(radix4);
 			this.writer = writer;
-			buffer = new char[bufferSize];
-		}
-
-		@Override
-		void bufferByte(int i, byte b) {
-			buffer[i] = (char) b;
+			charBuffer = new char[bufferSize];
 		}
 
 		@Override
 		void writeBuffer(int from, int to) throws IOException {
-			writer.write(buffer, from, to - from);
+			widen(charBuffer, from, to);
+			writer.write(charBuffer, from, to - from);
 		}
 		
 		@Override
@@ -237,23 +312,19 @@ abstract class Radix4OutputStream extends OutputStream {
 
 	static final class Chars extends Radix4OutputStream {
 
-		private final char[] buffer;
+		private final char[] charBuffer;
 		private final StringBuilder builder;
 
 		Chars(Radix4 radix4, StringBuilder builder) {
 			super(radix4);
 			this.builder = builder;
-			buffer = new char[bufferSize];
-		}
-
-		@Override
-		void bufferByte(int i, byte b) {
-			buffer[i] = (char) b;
+			charBuffer = new char[bufferSize];
 		}
 
 		@Override
 		void writeBuffer(int from, int to) throws IOException {
-			builder.append(buffer, from, to - from);
+			widen(charBuffer, from, to);
+			builder.append(charBuffer, from, to - from);
 		}
 		
 		@Override
@@ -0,0 +1,237 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A coding that splits large byte arrays into chunks that are processed
+ * concurrently by an {@link Executor}. Methods that operate on streams,
+ * channels or buffers are delegated to the underlying coding.
+ *
+ * @author tomgibara
+ *
+ */
+
+class Radix4Parallel implements Radix4Coding {
+
+	// the smallest number of bytes worth processing as a separate task
+	static final int MIN_CHUNK_LENGTH = 64 * 1024;
+
+	// the most tasks into which any one operation is split
+	private static final int MAX_CHUNKS = 4 * Runtime.getRuntime().availableProcessors();
+
+	// the number of chunks into which a length should be split
+	static int chunkCount(int length) {
+		return Math.max(1, Math.min(length / MIN_CHUNK_LENGTH, MAX_CHUNKS));
+	}
+
+	// runs all of the tasks, returning when they have all completed
+	static void run(Executor executor, List<? extends Runnable> tasks) {
+		int size = tasks.size();
+		if (executor == null || size < 2) {
+			for (Runnable task : tasks) {
+				task.run();
+			}
+			return;
+		}
+		List<FutureTask<Void>> futures = new ArrayList<FutureTask<Void>>(size - 1);
+		for (int i = 1; i < size; i++) {
+			FutureTask<Void> future = new FutureTask<Void>(tasks.get(i), null);
+			futures.add(future);
+			try {
+				executor.execute(future);
+			} catch (RejectedExecutionException e) {
+				/* the task will be run below */
+			}
+		}
+		tasks.get(0).run();
+		for (FutureTask<Void> future : futures) {
+			// runs the task on this thread if the executor hasn't started it
+			future.run();
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	private final Radix4Coding coding;
+	private final Radix4 radix4;
+	private final Executor executor;
+
+	Radix4Parallel(Radix4Coding coding, Executor executor) {
+		this.coding = coding;
+		this.radix4 = coding.getRadix4();
+		this.executor = executor;
+	}
+
+	@Override
+	public Radix4 getRadix4() {
+		return radix4;
+	}
+
+	@Override
+	public OutputStream outputToStream(OutputStream out) {
+		return coding.outputToStream(out);
+	}
+
+	@Override
+	public OutputStream outputToWriter(Writer writer) {
+		return coding.outputToWriter(writer);
+	}
+
+	@Override
+	public OutputStream outputToBuilder(StringBuilder builder) {
+		return coding.outputToBuilder(builder);
+	}
+
+	@Override
+	public InputStream inputFromStream(InputStream in) {
+		return coding.inputFromStream(in);
+	}
+
+	@Override
+	public InputStream inputFromReader(Reader reader) {
+		return coding.inputFromReader(reader);
+	}
+
+	@Override
+	public InputStream inputFromChars(CharSequence chars) {
+		return coding.inputFromChars(chars);
+	}
+
+	@Override
+	public GatheringByteChannel outputToChannel(WritableByteChannel channel) {
+		return coding.outputToChannel(channel);
+	}
+
+	@Override
+	public ReadableByteChannel inputFromChannel(ReadableByteChannel channel) {
+		return coding.inputFromChannel(channel);
+	}
+
+	@Override
+	public Radix4RecordReader recordsFromStream(InputStream in) {
+		return coding.recordsFromStream(in);
+	}
+
+	@Override
+	public Radix4RecordReader recordsFromChannel(ReadableByteChannel channel) {
+		return coding.recordsFromChannel(channel);
+	}
+
+	@Override
+	public Radix4Encoder newEncoder() {
+		return coding.newEncoder();
+	}
+
+	@Override
+	public Radix4Decoder newDecoder() {
+		return coding.newDecoder();
+	}
+
+	@Override
+	public Radix4Coding parallel(Executor executor) {
+		return coding.parallel(executor);
+	}
+
+	@Override
+	public String encodeToString(byte[] bytes) {
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		if (!isParallel(bytes.length, true)) return coding.encodeToString(bytes);
+		return Radix4.asciiStr(encodeToBytes(bytes));
+	}
+
+	@Override
+	public byte[] encodeToBytes(byte[] bytes) {
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		if (!isParallel(bytes.length, true)) return coding.encodeToBytes(bytes);
+		return new Radix4BlockEncoder.BytesEncoder(radix4).encode(ByteBuffer.wrap(bytes), executor);
+	}
+
+	@Override
+	public byte[] decodeFromString(CharSequence chars) {
+		if (chars == null) throw new IllegalArgumentException("null chars");
+		if (!isParallel(chars.length(), false)) return coding.decodeFromString(chars);
+		return new Radix4BlockDecoder.CharsDecoder(radix4, chars, true, executor).decode();
+	}
+
+	@Override
+	public byte[] decodeFromBytes(byte[] bytes) {
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		if (!isParallel(bytes.length, false)) return coding.decodeFromBytes(bytes);
+		return new Radix4BlockDecoder.BytesDecoder(radix4, bytes, true, executor).decode();
+	}
+
+	@Override
+	public boolean isValid(CharSequence chars) {
+		return coding.isValid(chars);
+	}
+
+	@Override
+	public boolean isValid(byte[] bytes) {
+		return coding.isValid(bytes);
+	}
+
+	@Override
+	public int encodeInto(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.encodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int encodeInto(byte[] src, int off, int len, char[] dst, int dstOff) {
+		return Radix4Arrays.encodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int decodeInto(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.decodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int decodeInto(char[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.decodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	// whether the coding of this many bytes should be split
+	// stream decoding is inherently sequential since whitespace may appear anywhere
+	private boolean isParallel(int length, boolean encoding) {
+		return (encoding || !radix4.streaming) && length >= 2 * MIN_CHUNK_LENGTH;
+	}
+
+}
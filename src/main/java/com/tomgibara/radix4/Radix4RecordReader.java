@@ -0,0 +1,148 @@
+/*
+ *   Copyright 2014 Tom Gibara
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ */
+package com.tomgibara.radix4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CoderResult;
+
+/**
+ * Reads a sequence of terminated Radix4 encodings, each of which is decoded
+ * as a separate record. Encodings may be separated by whitespace. A single
+ * buffer reads ahead from the underlying source across records, and a single
+ * decoder is reused for every record, so reading records does not allocate
+ * memory once the buffers have grown to accommodate the largest record.
+ * 
+ * Instances of this class are not safe for concurrent use by multiple threads.
+ * 
+ * @author tomgibara
+ * @see Radix4Coding#recordsFromStream(InputStream)
+ * @see Radix4Coding#recordsFromChannel(ReadableByteChannel)
+ */
+
+public final class Radix4RecordReader implements Closeable {
+
+	private final Radix4 radix4;
+	private final Radix4Decoder decoder;
+	// only one of these is set
+	private final InputStream in;
+	private final ReadableByteChannel channel;
+	// encoded characters read ahead from the source
+	private final ByteBuffer input;
+	// the decoded record, retained between records
+	private ByteBuffer output;
+	private boolean closed = false;
+
+	Radix4RecordReader(Radix4Coding coding, InputStream in, ReadableByteChannel channel) {
+		radix4 = coding.getRadix4();
+		if (!radix4.terminated) throw new IllegalStateException("coding not terminated");
+		decoder = coding.newDecoder();
+		this.in = in;
+		this.channel = channel;
+		input = ByteBuffer.allocate(radix4.bufferSize);
+		input.flip();
+		output = ByteBuffer.allocate(radix4.bufferSize);
+	}
+
+	/**
+	 * Reads and decodes the next record. The returned buffer contains the
+	 * decoded record between its position (zero) and its limit. It is only
+	 * valid until the next record is read, since the same buffer may be
+	 * reused to hold it.
+	 * 
+	 * @return a buffer containing the next record, or null if there are no
+	 *         more records
+	 * @throws IOException
+	 *             if the source could not be read, or it ended within a
+	 *             record or contained an invalid encoding
+	 */
+
+	public ByteBuffer readRecord() throws IOException {
+		if (closed) throw new IOException("reader closed");
+		// whitespace may follow the last record
+		if (!skipWhitespace()) return null;
+		decoder.reset();
+		output.clear();
+		while (true) {
+			CoderResult result;
+			try {
+				result = decoder.decode(input, output, false);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			if (decoder.isComplete()) break;
+			if (result.isOverflow()) {
+				ByteBuffer larger = ByteBuffer.allocate(output.capacity() * 2);
+				output.flip();
+				output = larger.put(output);
+			} else if (!fill()) {
+				throw new IOException("unexpected end of stream");
+			}
+		}
+		output.flip();
+		return output;
+	}
+
+	/**
+	 * Closes the underlying source.
+	 */
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		if (in == null) {
+			channel.close();
+		} else {
+			in.close();
+		}
+	}
+
+	// skips whitespace, returning false if the end of the source is reached
+	private boolean skipWhitespace() throws IOException {
+		while (true) {
+			while (input.hasRemaining()) {
+				if (!radix4.isWhitespace(input.get(input.position()) & 0xff)) return true;
+				input.position(input.position() + 1);
+			}
+			if (!fill()) return false;
+		}
+	}
+
+	// reads more characters, returning false at the end of the source
+	private boolean fill() throws IOException {
+		input.compact();
+		try {
+			int r;
+			do {
+				if (in == null) {
+					r = channel.read(input);
+				} else {
+					r = in.read(input.array(), input.arrayOffset() + input.position(), input.remaining());
+					if (r > 0) input.position(input.position() + r);
+				}
+			} while (r == 0);
+			return r > 0;
+		} finally {
+			input.flip();
+		}
+	}
+
+}
@@ -23,6 +23,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
 
 /**
  * Provides Radix4 binary-to-text and text-to-binary conversion streams.
@@ -84,35 +88,57 @@ class Radix4Streams implements Radix4Coding {
 		return new Radix4InputStream.Chars(radix4,chars);
 	}
 
+	@Override
+	public GatheringByteChannel outputToChannel(WritableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("null channel");
+		return new Radix4Channels.EncodingChannel(newEncoder(), channel);
+	}
+	
+	@Override
+	public ReadableByteChannel inputFromChannel(ReadableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("null channel");
+		return new Radix4Channels.DecodingChannel(newDecoder(), channel);
+	}
+	
+	@Override
+	public Radix4RecordReader recordsFromStream(InputStream in) {
+		if (in == null) throw new IllegalArgumentException("null in");
+		return new Radix4RecordReader(this, in, null);
+	}
+	
+	@Override
+	public Radix4RecordReader recordsFromChannel(ReadableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("null channel");
+		return new Radix4RecordReader(this, null, channel);
+	}
+	
+	@Override
+	public Radix4Encoder newEncoder() {
+		return new Radix4Encoder.Stream(radix4);
+	}
+	
+	@Override
+	public Radix4Decoder newDecoder() {
+		return new Radix4Decoder.Stream(radix4);
+	}
+	
+	@Override
+	public Radix4Coding parallel(Executor executor) {
+		if (executor == null) throw new IllegalArgumentException("null executor");
+		return new Radix4Parallel(this, executor);
+	}
+	
 	@Override
 	public String encodeToString(byte[] bytes) {
 		if (bytes == null) throw new IllegalArgumentException("null bytes");
-		StringBuilder builder = new StringBuilder();
-		try {
-			Radix4OutputStream out = new Radix4OutputStream.Chars(radix4, builder);
-			out.write(bytes);
-			out.close();
-		} catch (IOException e) {
-			// this shouldn't be possible
-			throw new RuntimeException(e);
-		}
-		return builder.toString();
+		// the array encoder produces the stream format for streaming codings
+		return Radix4.asciiStr(new Radix4BlockEncoder.BytesEncoder(radix4).encode(bytes));
 	}
 	
 	@Override
 	public byte[] encodeToBytes(byte[] bytes) {
-		long encodedLength = radix4.computeEncodedLength(bytes);
-		if (encodedLength > Integer.MAX_VALUE) throw new IllegalArgumentException("bytes too long");
-		ByteArrayOutputStream baos = new ByteArrayOutputStream((int) (encodedLength));
-		try {
-			Radix4OutputStream out = new Radix4OutputStream.ByteStream(radix4, baos);
-			out.write(bytes);
-			out.close();
-		} catch (IOException e) {
-			// this shouldn't be possible
-			throw new RuntimeException(e);
-		}
-		return baos.toByteArray();
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		return new Radix4BlockEncoder.BytesEncoder(radix4).encode(bytes);
 	}
 
 	@Override
@@ -133,13 +159,41 @@ class Radix4Streams implements Radix4Coding {
 		return out.toByteArray();
 	}
 
+	@Override
+	public boolean isValid(CharSequence chars) {
+		if (chars == null) throw new IllegalArgumentException("null chars");
+		return new Radix4BlockDecoder.CharsDecoder(radix4, chars, true).isValid();
+	}
+
+	@Override
+	public boolean isValid(byte[] bytes) {
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		return new Radix4BlockDecoder.BytesDecoder(radix4, bytes, true).isValid();
+	}
+
+	@Override
+	public int encodeInto(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.encodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int encodeInto(byte[] src, int off, int len, char[] dst, int dstOff) {
+		return Radix4Arrays.encodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int decodeInto(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.decodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
+	@Override
+	public int decodeInto(char[] src, int off, int len, byte[] dst, int dstOff) {
+		return Radix4Arrays.decodeInto(radix4, src, off, len, dst, dstOff);
+	}
+
 	private void transfer(Radix4InputStream in, OutputStream out) {
 		try {
-			while (true) {
-				int r = in.read();
-				if (r < 0) break;
-				out.write(r);
-			}
+			in.transferTo(out);
 			out.close();
 			in.close();
 		} catch (IOException e) {
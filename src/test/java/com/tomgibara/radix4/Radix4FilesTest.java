@@ -0,0 +1,94 @@
+package com.tomgibara.radix4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class Radix4FilesTest extends TestCase {
+
+	// 16 byte segments, so that even short files span many of them
+	private static final int SEGMENT_SHIFT = 4;
+
+	private final Random random = new Random(0);
+
+	public void testSmallSegments() throws IOException {
+		testSegments(SEGMENT_SHIFT, 200, 300);
+	}
+
+	// block codings are transferred in chunks, so these files span several
+	public void testLongFiles() throws IOException {
+		testSegments(12, 8, 40000);
+	}
+
+	private void testSegments(int segmentShift, int count, int maxLength) throws IOException {
+		File source = File.createTempFile("radix4", ".bin");
+		File encoded = File.createTempFile("radix4", ".txt");
+		File decoded = File.createTempFile("radix4", ".bin");
+		try {
+			for (int n = 0; n < count; n++) {
+				Radix4 radix4 = Radix4.stream().configure()
+						.setStreaming(n % 2 == 0)
+						.setLineLength(n % 4 < 2 ? Radix4Config.NO_LINE_BREAK : 1 + random.nextInt(20))
+						.setOptimistic(random.nextBoolean())
+						.setTerminated(random.nextBoolean())
+						.use();
+				Radix4Files files = new Radix4Files(radix4, segmentShift);
+				byte[] bytes = randomBytes(maxLength);
+				writeFile(source, bytes);
+				long length = files.encode(source, encoded);
+				byte[] chars = readFile(encoded);
+				assertEquals(length, chars.length);
+				assertTrue(Arrays.equals(radix4.coding().encodeToBytes(bytes), chars));
+				assertEquals(bytes.length, files.decode(encoded, decoded));
+				assertTrue(Arrays.equals(bytes, readFile(decoded)));
+			}
+		} finally {
+			source.delete();
+			encoded.delete();
+			decoded.delete();
+		}
+	}
+
+	// a radix free prefix followed by arbitrary bytes, crossing several segment boundaries
+	private byte[] randomBytes(int maxLength) {
+		byte[] bytes = new byte[random.nextInt(maxLength)];
+		int prefix = random.nextInt(bytes.length + 1);
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i < prefix ? 'a' + random.nextInt(26) : random.nextInt(256));
+		}
+		return bytes;
+	}
+
+	private static void writeFile(File file, byte[] bytes) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] bytes = new byte[37];
+			int r;
+			while ((r = in.read(bytes)) != -1) {
+				out.write(bytes, 0, r);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -21,6 +21,34 @@ public class Radix4Test extends TestCase {
 		}
 	}
 	
+	public void testFusedTables() {
+		Random random = new Random(0);
+		for (int n = 0; n < 100; n++) {
+			Radix4Mapping mapping = Radix4MappingTest.randomMapping(random);
+			int[] decmap = mapping.getDecodingMap();
+			char terminator = (char) decmap[64];
+			char whitespace = (char) decmap[65];
+			Radix4 radix4 = Radix4.block().configure()
+					.setMapping(mapping)
+					.setTerminator(terminator)
+					.setWhitespace(new char[] { whitespace })
+					.setLineBreak(String.valueOf(whitespace))
+					.use();
+			for (int i = 0; i < 256; i++) {
+				int e = radix4.encodings[i];
+				int m = mapping.encmap[i];
+				assertEquals(mapping.chars[m & 0x3f], (byte) e);
+				assertEquals(m >> 6, e >> 8);
+				assertEquals((byte) mapping.decmap[i], radix4.unmappings[i]);
+			}
+			for (int i = 0; i < 64; i++) {
+				assertEquals(i, radix4.decodings[mapping.chars[i]]);
+			}
+			assertEquals(-2, radix4.decodings[whitespace]);
+			assertEquals(-3, radix4.decodings[terminator]);
+		}
+	}
+	
 	public void testSerialization() throws IOException, ClassNotFoundException {
 		String message = "%^&*()";
 
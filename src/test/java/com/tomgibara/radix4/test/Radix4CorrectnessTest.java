@@ -18,18 +18,37 @@ package com.tomgibara.radix4.test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import com.tomgibara.radix4.Radix4;
 import com.tomgibara.radix4.Radix4Coding;
+import com.tomgibara.radix4.Radix4Decoder;
+import com.tomgibara.radix4.Radix4Encoder;
+import com.tomgibara.radix4.Radix4Metrics;
+import com.tomgibara.radix4.Radix4RecordReader;
 
 
 import junit.framework.TestCase;
@@ -90,15 +109,86 @@ public class Radix4CorrectnessTest extends TestCase {
 		assertEquals("superflous line breaks", str.trim(), str);
 	}
 
+	public void testLineBreakBeforeTerminator() throws IOException {
+		// a terminator that begins a new line is preceded by a line break
+		Radix4Coding coding = Radix4.block().configure().setTerminated(true).setOptimistic(false).setLineLength(4).use().coding();
+		byte[][] bytes = { { 0, 1, 2 }, { (byte) 200, 1, 2, 3, 4, 5 } };
+		String[] expected = { "_ABK\n.", "2ABC\nDEqK\n." };
+		for (int i = 0; i < bytes.length; i++) {
+			assertEquals(expected[i], coding.encodeToString(bytes[i]));
+			assertEquals(expected[i], new String(coding.encodeToBytes(bytes[i]), ASCII));
+			StringWriter writer = new StringWriter();
+			OutputStream out = coding.outputToWriter(writer);
+			out.write(bytes[i]);
+			out.close();
+			assertEquals(expected[i], writer.toString());
+			assertTrue(Arrays.equals(bytes[i], coding.decodeFromString(expected[i])));
+		}
+	}
+
 	public void testWriteFailsAfterClose() throws IOException {
-		OutputStream out = Radix4.stream().coding().outputToStream(new ByteArrayOutputStream());
-		out.write(1);
-		out.close();
-		try {
-			out.write(2);
-			fail("write successful after close");
-		} catch (IOException e) {
-			/* expected */
+		for (Radix4 radix4 : new Radix4[] {Radix4.stream(), Radix4.block()}) {
+			OutputStream out = radix4.coding().outputToStream(new ByteArrayOutputStream());
+			out.write(1);
+			out.close();
+			try {
+				out.write(2);
+				fail("write successful after close");
+			} catch (IOException e) {
+				/* expected */
+			}
+		}
+	}
+
+	public void testMixedWrites() throws IOException {
+		report("* MIXED WRITES");
+		Iterator<byte[]> tests = new TestData(2L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = Radix4.stream().configure()
+				.setLineLength(rand.nextInt(20))
+				.setBufferSize(rand.nextInt(30))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.use();
+			byte[] bytes = tests.next();
+			// write the bytes using an arbitrary mix of single and bulk writes
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			OutputStream out = radix4.coding().outputToStream(baos);
+			int position = 0;
+			while (position < bytes.length) {
+				if (rand.nextBoolean()) {
+					out.write(bytes[position++]);
+				} else {
+					int length = rand.nextInt(bytes.length - position + 1);
+					out.write(bytes, position, length);
+					position += length;
+				}
+			}
+			out.close();
+			String str = new String(baos.toByteArray(), ASCII);
+			assertEquals(radix4.coding().encodeToString(bytes), str);
+			assertTrue(Arrays.equals(bytes, radix4.coding().decodeFromString(str)));
+		}
+	}
+
+	public void testLongBlockOutput() throws IOException {
+		// long enough that the encoding is output in several chunks
+		for (int i = 0; i < 8; i++) {
+			Radix4 radix4 = Radix4.block().configure()
+				.setLineLength(rand.nextInt(80))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.use();
+			byte[] bytes = new byte[rand.nextInt(40000)];
+			int prefix = rand.nextInt(bytes.length + 1);
+			for (int j = 0; j < bytes.length; j++) {
+				bytes[j] = (byte) (j < prefix ? 'a' + rand.nextInt(26) : rand.nextInt(256));
+			}
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			OutputStream out = radix4.coding().outputToStream(baos);
+			out.write(bytes);
+			out.close();
+			assertEquals(radix4.coding().encodeToString(bytes), new String(baos.toByteArray(), ASCII));
 		}
 	}
 
@@ -133,6 +223,652 @@ public class Radix4CorrectnessTest extends TestCase {
 		}
 	}
 
+	public void testTrailingDataPreserved() throws IOException {
+		report("* TRAILING DATA");
+		Iterator<byte[]> tests = new TestData(3L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = (i % 2 == 0 ? Radix4.stream() : Radix4.block()).configure()
+				.setTerminated(true)
+				.setOptimistic(rand.nextBoolean())
+				.setLineLength(7)
+				.use();
+			byte[] bytes = tests.next();
+			String suffix = "suffix" + i;
+			String str = radix4.coding().encodeToString(bytes) + suffix;
+			byte[] encoded = str.getBytes(ASCII);
+
+			// a stream that supports marking may be read ahead
+			ByteArrayInputStream markable = new ByteArrayInputStream(encoded);
+			assertTrue(Arrays.equals(bytes, readFully(radix4.coding().inputFromStream(markable))));
+			assertEquals(suffix, new String(readFully(markable), ASCII));
+
+			// one that doesn't must not be, unless the surplus can be pushed back
+			if (radix4.isStreaming()) {
+				InputStream unmarkable = new ByteArrayInputStream(encoded) {
+					@Override
+					public boolean markSupported() {
+						return false;
+					}
+				};
+				assertTrue(Arrays.equals(bytes, readFully(radix4.coding().inputFromStream(unmarkable))));
+				assertEquals(suffix, new String(readFully(unmarkable), ASCII));
+			} else {
+				// blocks are read in bulk
+				InputStream unmarkable = new ByteArrayInputStream(encoded) {
+					@Override
+					public boolean markSupported() {
+						return false;
+					}
+					@Override
+					public synchronized int read() {
+						throw new AssertionError("single byte read");
+					}
+				};
+				PushbackInputStream pushback = new PushbackInputStream(unmarkable, radix4.getBufferSize());
+				assertTrue(Arrays.equals(bytes, readFully(radix4.coding().inputFromStream(pushback))));
+				assertEquals(suffix, new String(readFully(pushback), ASCII));
+			}
+
+			StringReader reader = new StringReader(str);
+			assertTrue(Arrays.equals(bytes, readFully(radix4.coding().inputFromReader(reader))));
+			char[] cs = new char[suffix.length() + 1];
+			assertEquals(suffix.length(), reader.read(cs));
+
+			if (!radix4.isStreaming()) {
+				PushbackReader pushback = new PushbackReader(new StringReader(str), radix4.getBufferSize());
+				assertTrue(Arrays.equals(bytes, readFully(radix4.coding().inputFromReader(pushback))));
+				assertEquals(suffix.length(), pushback.read(cs));
+				assertEquals(suffix, new String(cs, 0, suffix.length()));
+			}
+		}
+	}
+
+	public void testBlockPrefixStreamed() throws IOException {
+		report("* BLOCK PREFIX STREAMED");
+		for (boolean terminated : new boolean[] {false, true}) {
+			Radix4 radix4 = Radix4.block().configure().setTerminated(terminated).setLineLength(7).use();
+			byte[] bytes = new byte[1000];
+			Arrays.fill(bytes, 0, 600, (byte) 'a');
+			for (int i = 600; i < 1000; i++) bytes[i] = (byte) rand.nextInt();
+			final String str = radix4.coding().encodeToString(bytes);
+			final int prefix = str.indexOf(radix4.getTerminator()) + 1;
+
+			// the radix free bytes must be readable before the input that follows them
+			InputStream in = radix4.coding().inputFromStream(new InputStream() {
+				int i = 0;
+				@Override
+				public int read() throws IOException {
+					if (i == prefix) throw new IOException("read beyond prefix");
+					return i == str.length() ? -1 : str.charAt(i++);
+				}
+			});
+			byte[] read = new byte[600];
+			for (int off = 0; off < read.length; ) {
+				off += in.read(read, off, read.length - off);
+			}
+			assertTrue(Arrays.equals(Arrays.copyOf(bytes, 600), read));
+
+			// and must be returned without waiting for a full buffer
+			final int chunk = 20;
+			Radix4Coding coding = radix4.configure().setBufferSize(256).use().coding();
+			in = coding.inputFromStream(new InputStream() {
+				boolean blocked = false;
+				@Override
+				public int read() throws IOException {
+					throw new IOException("single byte read");
+				}
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (blocked) throw new IOException("read beyond chunk");
+					blocked = true;
+					for (int i = 0; i < chunk; i++) b[off + i] = (byte) str.charAt(i);
+					return chunk;
+				}
+			});
+			int r = in.read(read);
+			assertTrue(r > 0 && r <= chunk);
+			assertTrue(Arrays.equals(Arrays.copyOf(bytes, r), Arrays.copyOf(read, r)));
+			InputStream chars = coding.inputFromReader(new Reader() {
+				boolean blocked = false;
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					if (blocked) throw new IOException("read beyond chunk");
+					blocked = true;
+					str.getChars(0, chunk, cbuf, off);
+					return chunk;
+				}
+				@Override
+				public void close() {
+				}
+			});
+			r = chars.read(read);
+			assertTrue(r > 0 && r <= chunk);
+			assertTrue(Arrays.equals(Arrays.copyOf(bytes, r), Arrays.copyOf(read, r)));
+
+			StringReader reader = new StringReader(str);
+			assertTrue(Arrays.equals(bytes, readFully(radix4.coding().inputFromReader(reader))));
+		}
+	}
+
+	public void testSpill() throws IOException {
+		report("* SPILL");
+		Iterator<byte[]> tests = new TestData(5L).iterator();
+		for (int i = 0; i < TEST_COUNT / 100; i++) {
+			Radix4 radix4 = Radix4.block().configure()
+				.setSpillThreshold(1 + rand.nextInt(100))
+				.setLineLength(rand.nextInt(20))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.use();
+			byte[] bytes = tests.next();
+			StringWriter writer = new StringWriter();
+			OutputStream out = radix4.coding().outputToWriter(writer);
+			// single bytes are spilled as well as arrays
+			int split = rand.nextInt(bytes.length + 1);
+			out.write(bytes, 0, split);
+			for (int j = split; j < bytes.length; j++) {
+				out.write(bytes[j]);
+			}
+			out.close();
+			assertEquals(radix4.coding().encodeToString(bytes), writer.toString());
+		}
+	}
+
+	public void testTrusted() {
+		report("* TRUSTED");
+		Iterator<byte[]> tests = new TestData(8L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = (i % 2 == 0 ? Radix4.stream() : Radix4.block()).configure()
+				.setLineLength(rand.nextInt(20))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.setTrusted(true)
+				.use();
+			assertTrue(radix4.isTrusted());
+			Radix4Coding coding = radix4.coding();
+			byte[] bytes = tests.next();
+			String str = coding.encodeToString(bytes);
+			assertTrue(Arrays.equals(bytes, coding.decodeFromString(str)));
+			assertTrue(Arrays.equals(bytes, coding.decodeFromBytes(str.getBytes(ASCII))));
+
+			// only block decoding skips validation
+			if (radix4.isStreaming()) continue;
+
+			// garbage produces arbitrary bytes, but never an index outside the tables
+			char[] cs = new char[rand.nextInt(50)];
+			for (int j = 0; j < cs.length; j++) {
+				cs[j] = (char) rand.nextInt(rand.nextBoolean() ? 128 : 65536);
+			}
+			byte[] bs = new byte[rand.nextInt(50)];
+			rand.nextBytes(bs);
+			try {
+				coding.decodeFromString(new String(cs));
+			} catch (IllegalArgumentException e) {
+				/* the layout is still checked */
+			}
+			try {
+				coding.decodeFromBytes(bs);
+			} catch (IllegalArgumentException e) {
+				/* the layout is still checked */
+			}
+		}
+	}
+
+	public void testValidation() {
+		report("* VALIDATION");
+		Iterator<byte[]> tests = new TestData(9L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = (i % 2 == 0 ? Radix4.stream() : Radix4.block()).configure()
+				.setLineLength(rand.nextInt(20))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.use();
+			Radix4Coding coding = radix4.coding();
+			byte[] bytes = tests.next();
+			String str = coding.encodeToString(bytes);
+			assertTrue(coding.isValid(str));
+			assertTrue(coding.isValid(str.getBytes(ASCII)));
+
+			// an invalid character anywhere is rejected
+			if (str.length() > 0) {
+				int index = rand.nextInt(str.length());
+				String invalid = str.substring(0, index) + '!' + str.substring(index + 1);
+				assertFalse(coding.isValid(invalid));
+				assertFalse(coding.isValid(invalid.getBytes(ASCII)));
+			}
+
+			// as is a terminated encoding without its terminator
+			if (radix4.isTerminated()) {
+				int end = str.length();
+				while (end > 0 && (str.charAt(end - 1) == radix4.getTerminator() || Character.isWhitespace(str.charAt(end - 1)))) end--;
+				String unterminated = str.substring(0, end);
+				assertFalse(coding.isValid(unterminated));
+				assertFalse(coding.isValid(unterminated.getBytes(ASCII)));
+			}
+		}
+
+		// a radixed section cannot have a single character left over
+		for (Radix4 radix4 : new Radix4[] { Radix4.stream(), Radix4.block() }) {
+			Radix4Coding coding = radix4.configure().setOptimistic(false).use().coding();
+			String str = coding.encodeToString(new byte[] { 1, 2, 3 });
+			assertTrue(coding.isValid(str));
+			String bad = str + str.charAt(0);
+			assertFalse(coding.isValid(bad));
+			assertFalse(coding.isValid(bad.getBytes(ASCII)));
+		}
+
+		// a terminated stream must separate radix free bytes from a radixed section, even if it is empty
+		Radix4Coding coding = Radix4.stream().configure().setTerminated(true).use().coding();
+		String str = coding.encodeToString("ABC123".getBytes(ASCII));
+		assertEquals("ABC123..", str);
+		assertFalse(coding.isValid("ABC123."));
+		assertFalse(coding.isValid("ABC123.".getBytes(ASCII)));
+	}
+
+	public void testMetrics() throws IOException {
+		report("* METRICS");
+		Iterator<byte[]> tests = new TestData(6L).iterator();
+		File source = File.createTempFile("radix4", ".bin");
+		File target = File.createTempFile("radix4", ".txt");
+		try {
+			for (int i = 0; i < TEST_COUNT / 100; i++) {
+				Metrics metrics = new Metrics();
+				Radix4 radix4 = (rand.nextBoolean() ? Radix4.stream() : Radix4.block()).configure()
+					.setLineLength(rand.nextInt(20))
+					.setOptimistic(rand.nextBoolean())
+					.setTerminated(rand.nextBoolean())
+					.setMetrics(metrics)
+					.use();
+				assertSame(metrics, radix4.getMetrics());
+				byte[] bytes = tests.next();
+				String str = radix4.coding().encodeToString(bytes);
+				long lineBreaks = str.length() - str.replace("\n", "").length();
+				assertEquals(bytes.length, metrics.bytes);
+				assertEquals(str.length(), metrics.chars);
+				assertEquals(lineBreaks, metrics.lineBreaks);
+				long radixFreeBytes = metrics.radixFreeBytes;
+
+				metrics = new Metrics();
+				radix4 = radix4.configure().setMetrics(metrics).use();
+				StringWriter writer = new StringWriter();
+				OutputStream out = radix4.coding().outputToWriter(writer);
+				out.write(bytes);
+				out.close();
+				assertEquals(bytes.length, metrics.bytes);
+				assertEquals(radixFreeBytes, metrics.radixFreeBytes);
+				assertEquals(str.length(), metrics.chars);
+				assertEquals(lineBreaks, metrics.lineBreaks);
+
+				radix4.coding().decodeFromString(str);
+				assertEquals(str.length(), metrics.decodedChars);
+				assertEquals(lineBreaks, metrics.whitespace);
+				assertEquals(bytes.length, metrics.decodedBytes);
+
+				metrics = new Metrics();
+				radix4 = radix4.configure().setMetrics(metrics).use();
+				readFully(radix4.coding().inputFromChars(str));
+				assertEquals(str.length(), metrics.decodedChars);
+				assertEquals(lineBreaks, metrics.whitespace);
+				assertEquals(bytes.length, metrics.decodedBytes);
+				assertEquals(0, metrics.rejections);
+
+				// incremental coders, and so channels, report too
+				metrics = new Metrics();
+				radix4 = radix4.configure().setMetrics(metrics).use();
+				CharBuffer encoded = CharBuffer.allocate(str.length());
+				radix4.coding().newEncoder().encode(ByteBuffer.wrap(bytes), encoded, true);
+				assertEquals(bytes.length, metrics.bytes);
+				assertEquals(radixFreeBytes, metrics.radixFreeBytes);
+				assertEquals(str.length(), metrics.chars);
+				assertEquals(lineBreaks, metrics.lineBreaks);
+				radix4.coding().newDecoder().decode(CharBuffer.wrap(str), ByteBuffer.allocate(bytes.length), true);
+				assertEquals(str.length(), metrics.decodedChars);
+				assertEquals(lineBreaks, metrics.whitespace);
+				assertEquals(bytes.length, metrics.decodedBytes);
+
+				// as do files
+				metrics = new Metrics();
+				radix4 = radix4.configure().setMetrics(metrics).use();
+				writeFile(source, bytes);
+				radix4.files().encode(source, target);
+				assertEquals(bytes.length, metrics.bytes);
+				assertEquals(radixFreeBytes, metrics.radixFreeBytes);
+				assertEquals(str.length(), metrics.chars);
+				assertEquals(lineBreaks, metrics.lineBreaks);
+				radix4.files().decode(target, source);
+				assertEquals(str.length(), metrics.decodedChars);
+				assertEquals(lineBreaks, metrics.whitespace);
+				assertEquals(bytes.length, metrics.decodedBytes);
+				assertEquals(0, metrics.rejections);
+			}
+		} finally {
+			source.delete();
+			target.delete();
+		}
+
+		Metrics metrics = new Metrics();
+		Radix4 radix4 = Radix4.block().configure().setMetrics(metrics).use();
+		try {
+			radix4.coding().decodeFromString("!");
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+		radix4 = Radix4.stream().configure().setMetrics(metrics).use();
+		try {
+			readFully(radix4.coding().inputFromChars("!"));
+			fail();
+		} catch (IOException e) {
+			/* expected */
+		}
+		try {
+			radix4.coding().newDecoder().decode(CharBuffer.wrap("!"), ByteBuffer.allocate(1), true);
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+		assertEquals(3, metrics.rejections);
+	}
+
+	public void testRecords() throws IOException {
+		report("* RECORDS");
+		Iterator<byte[]> tests = new TestData(7L).iterator();
+		for (int i = 0; i < TEST_COUNT / 100; i++) {
+			Radix4 radix4 = (rand.nextBoolean() ? Radix4.stream() : Radix4.block()).configure()
+				.setLineLength(rand.nextInt(20))
+				.setBufferSize(rand.nextInt(30))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(true)
+				.use();
+			Radix4Coding coding = radix4.coding();
+			byte[][] records = new byte[1 + rand.nextInt(10)][];
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < records.length; j++) {
+				records[j] = tests.next();
+				sb.append(coding.encodeToString(records[j]));
+				if (rand.nextBoolean()) sb.append('\n');
+			}
+			byte[] encoded = sb.toString().getBytes(ASCII);
+
+			for (int k = 0; k < 2; k++) {
+				ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+				Radix4RecordReader reader = k == 0 ? coding.recordsFromStream(in) : coding.recordsFromChannel(Channels.newChannel(in));
+				for (byte[] record : records) {
+					ByteBuffer buffer = reader.readRecord();
+					assertNotNull(buffer);
+					byte[] bytes = new byte[buffer.remaining()];
+					buffer.get(bytes);
+					assertTrue(Arrays.equals(record, bytes));
+				}
+				assertNull(reader.readRecord());
+				reader.close();
+			}
+		}
+
+		// a record must be complete
+		Radix4Coding coding = Radix4.stream().configure().setTerminated(true).use().coding();
+		String str = coding.encodeToString(new byte[] { 1, 2, 3 });
+		Radix4RecordReader reader = coding.recordsFromStream(new ByteArrayInputStream((str + str.substring(0, 2)).getBytes(ASCII)));
+		assertNotNull(reader.readRecord());
+		try {
+			reader.readRecord();
+			fail();
+		} catch (IOException e) {
+			/* expected */
+		}
+
+		// and only terminated codings have records
+		try {
+			Radix4.stream().coding().recordsFromStream(new ByteArrayInputStream(new byte[0]));
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+	}
+
+	public void testIncremental() {
+		report("* INCREMENTAL");
+		Iterator<byte[]> tests = new TestData(4L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = Radix4.stream().configure()
+				.setLineLength(rand.nextInt(20))
+				.setBufferSize(rand.nextInt(30))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.setStreaming(rand.nextBoolean())
+				.use();
+			Radix4Coding coding = radix4.coding();
+			byte[] bytes = tests.next();
+			String expected = coding.encodeToString(bytes);
+
+			// encode in arbitrary slices to small buffers
+			Radix4Encoder encoder = coding.newEncoder();
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			ByteBuffer byteOut = ByteBuffer.allocate(expected.length());
+			while (true) {
+				ByteBuffer slice = slice(in);
+				ByteBuffer out = slice(byteOut);
+				boolean end = !in.hasRemaining();
+				encoder.encode(slice, out, end);
+				in.position(in.position() - slice.remaining());
+				byteOut.position(byteOut.position() - out.remaining());
+				if (end && encoder.isComplete()) break;
+			}
+			assertEquals(expected, new String(byteOut.array(), ASCII));
+
+			// same again to chars, after reset
+			in.rewind();
+			encoder.reset();
+			CharBuffer charOut = CharBuffer.allocate(expected.length());
+			assertEquals(CoderResult.UNDERFLOW, encoder.encode(in, charOut, true));
+			assertEquals(expected, charOut.flip().toString());
+
+			// and reused for shorter input, after reset
+			byte[] half = Arrays.copyOf(bytes, bytes.length / 2);
+			String halfExpected = coding.encodeToString(half);
+			encoder.reset();
+			charOut.clear();
+			assertEquals(CoderResult.UNDERFLOW, encoder.encode(ByteBuffer.wrap(half), charOut, true));
+			assertEquals(halfExpected, charOut.flip().toString());
+
+			// decode in arbitrary slices, leaving any suffix unread
+			String suffix = radix4.isTerminated() ? "suffix" : "";
+			Radix4Decoder decoder = coding.newDecoder();
+			ByteBuffer encoded = ASCII.encode(expected + suffix);
+			ByteBuffer decoded = ByteBuffer.allocate(bytes.length);
+			while (true) {
+				ByteBuffer slice = slice(encoded);
+				ByteBuffer out = slice(decoded);
+				decoder.decode(slice, out, !encoded.hasRemaining());
+				encoded.position(encoded.position() - slice.remaining());
+				decoded.position(decoded.position() - out.remaining());
+				if (decoder.isComplete()) break;
+			}
+			assertTrue(Arrays.equals(bytes, decoded.array()));
+			assertEquals(suffix, ASCII.decode(encoded).toString());
+
+			// and from chars, after reset
+			decoder.reset();
+			decoded.clear();
+			CharBuffer chars = CharBuffer.wrap(expected);
+			assertEquals(CoderResult.UNDERFLOW, decoder.decode(chars, decoded, true));
+			assertTrue(decoder.isComplete());
+			assertTrue(Arrays.equals(bytes, decoded.array()));
+
+			// and reused for shorter input, after reset
+			decoder.reset();
+			decoded.clear();
+			assertEquals(CoderResult.UNDERFLOW, decoder.decode(CharBuffer.wrap(halfExpected), decoded, true));
+			assertEquals(half.length, decoded.position());
+			assertTrue(Arrays.equals(half, Arrays.copyOf(decoded.array(), half.length)));
+		}
+	}
+
+	public void testChannels() throws IOException {
+		report("* CHANNELS");
+		Iterator<byte[]> tests = new TestData(5L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = Radix4.stream().configure()
+				.setLineLength(rand.nextInt(20))
+				.setBufferSize(rand.nextInt(30))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.setStreaming(rand.nextBoolean())
+				.use();
+			Radix4Coding coding = radix4.coding();
+			byte[] bytes = tests.next();
+
+			// encode with a gathering write of arbitrary slices
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			GatheringByteChannel out = coding.outputToChannel(Channels.newChannel(baos));
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			ByteBuffer[] srcs = new ByteBuffer[rand.nextInt(4)];
+			for (int j = 0; j < srcs.length; j++) {
+				srcs[j] = slice(in);
+			}
+			assertEquals(bytes.length - in.remaining(), out.write(srcs));
+			assertEquals(in.remaining(), out.write(in));
+			out.close();
+			assertFalse(out.isOpen());
+			byte[] encoded = baos.toByteArray();
+			assertEquals(coding.encodeToString(bytes), new String(encoded, ASCII));
+
+			// decode into a small buffer
+			ReadableByteChannel channel = coding.inputFromChannel(Channels.newChannel(new ByteArrayInputStream(encoded)));
+			// room for an extra byte so that the end of input can always be read
+			ByteBuffer decoded = ByteBuffer.allocate(bytes.length + 1);
+			while (true) {
+				ByteBuffer dst = slice(decoded);
+				int r = channel.read(dst);
+				decoded.position(decoded.position() - dst.remaining());
+				if (r == -1) break;
+			}
+			channel.close();
+			assertEquals(bytes.length, decoded.position());
+			assertTrue(Arrays.equals(bytes, Arrays.copyOf(decoded.array(), bytes.length)));
+		}
+	}
+
+	public void testFiles() throws IOException {
+		report("* FILES");
+		Iterator<byte[]> tests = new TestData(6L).iterator();
+		File source = File.createTempFile("radix4", ".bin");
+		File encoded = File.createTempFile("radix4", ".txt");
+		File decoded = File.createTempFile("radix4", ".bin");
+		try {
+			for (int i = 0; i < TEST_COUNT / 100; i++) {
+				Radix4 radix4 = Radix4.stream().configure()
+					.setLineLength(rand.nextInt(20))
+					.setOptimistic(rand.nextBoolean())
+					.setTerminated(rand.nextBoolean())
+					.setStreaming(rand.nextBoolean())
+					.use();
+				byte[] bytes = tests.next();
+				writeFile(source, bytes);
+				long length = radix4.files().encode(source, encoded);
+				byte[] chars = readFile(encoded);
+				assertEquals(length, chars.length);
+				assertTrue(Arrays.equals(radix4.coding().encodeToBytes(bytes), chars));
+				assertEquals(bytes.length, radix4.files().decode(encoded, decoded));
+				assertTrue(Arrays.equals(bytes, readFile(decoded)));
+			}
+		} finally {
+			source.delete();
+			encoded.delete();
+			decoded.delete();
+		}
+	}
+
+	public void testInto() {
+		report("* INTO");
+		Iterator<byte[]> tests = new TestData(7L).iterator();
+		for (int i = 0; i < TEST_COUNT / 10; i++) {
+			Radix4 radix4 = Radix4.stream().configure()
+				.setLineLength(rand.nextInt(20))
+				.setOptimistic(rand.nextBoolean())
+				.setTerminated(rand.nextBoolean())
+				.setStreaming(rand.nextBoolean())
+				.use();
+			Radix4Coding coding = radix4.coding();
+			byte[] bytes = tests.next();
+			byte[] expected = coding.encodeToBytes(bytes);
+			int off = rand.nextInt(5);
+			int dstOff = rand.nextInt(5);
+
+			// encode from within a larger array
+			byte[] src = new byte[off + bytes.length + rand.nextInt(5)];
+			System.arraycopy(bytes, 0, src, off, bytes.length);
+			byte[] encoded = new byte[dstOff + expected.length];
+			assertEquals(expected.length, coding.encodeInto(src, off, bytes.length, encoded, dstOff));
+			assertTrue(Arrays.equals(expected, Arrays.copyOfRange(encoded, dstOff, encoded.length)));
+			char[] chars = new char[dstOff + expected.length];
+			assertEquals(expected.length, coding.encodeInto(src, off, bytes.length, chars, dstOff));
+			assertEquals(new String(expected, ASCII), new String(chars, dstOff, expected.length));
+
+			// decode back into a larger array
+			byte[] decoded = new byte[off + bytes.length];
+			assertEquals(bytes.length, coding.decodeInto(encoded, dstOff, expected.length, decoded, off));
+			assertTrue(Arrays.equals(bytes, Arrays.copyOfRange(decoded, off, decoded.length)));
+			decoded = new byte[off + bytes.length];
+			assertEquals(bytes.length, coding.decodeInto(chars, dstOff, expected.length, decoded, off));
+			assertTrue(Arrays.equals(bytes, Arrays.copyOfRange(decoded, off, decoded.length)));
+
+			// destinations that are too small are left unmodified
+			if (expected.length > 0) {
+				byte[] small = new byte[dstOff + expected.length - 1];
+				try {
+					coding.encodeInto(src, off, bytes.length, small, dstOff);
+					fail();
+				} catch (IllegalArgumentException e) {
+					assertTrue(Arrays.equals(new byte[small.length], small));
+				}
+			}
+			if (bytes.length > 0) {
+				byte[] small = new byte[bytes.length - 1];
+				try {
+					coding.decodeInto(encoded, dstOff, expected.length, small, 0);
+					fail();
+				} catch (IllegalArgumentException e) {
+					assertTrue(Arrays.equals(new byte[small.length], small));
+				}
+			}
+		}
+	}
+
+	public void testParallel() {
+		report("* PARALLEL");
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (int i = 0; i < 40; i++) {
+				Radix4 radix4 = Radix4.block().configure()
+					.setLineLength(rand.nextInt(100))
+					.setOptimistic(rand.nextBoolean())
+					.setTerminated(rand.nextBoolean())
+					.setStreaming(rand.nextBoolean())
+					.use();
+				Radix4Coding coding = radix4.coding();
+				Radix4Coding parallel = coding.parallel(executor);
+				// a radix free prefix followed by arbitrary bytes
+				byte[] bytes = new byte[rand.nextInt(1000000)];
+				int prefix = rand.nextInt(bytes.length + 1);
+				for (int j = 0; j < prefix; j++) {
+					bytes[j] = (byte) ('a' + rand.nextInt(26));
+				}
+				for (int j = prefix; j < bytes.length; j++) {
+					bytes[j] = (byte) rand.nextInt();
+				}
+				report(bytes.length, " bytes with prefix ", prefix);
+				byte[] expected = coding.encodeToBytes(bytes);
+				assertTrue(Arrays.equals(expected, parallel.encodeToBytes(bytes)));
+				assertEquals(new String(expected, ASCII), parallel.encodeToString(bytes));
+				assertTrue(Arrays.equals(bytes, parallel.decodeFromBytes(expected)));
+				assertTrue(Arrays.equals(bytes, parallel.decodeFromString(new String(expected, ASCII))));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	public void testBlock() throws IOException {
 		report("* BLOCK");
 		Radix4Coding coding = Radix4.block().coding();
@@ -243,6 +979,42 @@ public class Radix4CorrectnessTest extends TestCase {
 		assertTrue("byte processed result did not match", Arrays.equals(bytesIn, decBs));
 	}
 
+	// a view of an arbitrary number of the buffer's remaining bytes
+	private ByteBuffer slice(ByteBuffer buffer) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(rand.nextInt(slice.limit() + 1));
+		buffer.position(buffer.position() + slice.limit());
+		return slice;
+	}
+
+	private static void writeFile(File file, byte[] bytes) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return readFully(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] bytes = new byte[37];
+		int r;
+		while ((r = in.read(bytes)) > -1) {
+			out.write(bytes, 0, r);
+		}
+		return out.toByteArray();
+	}
+
 	private static void transfer(final InputStream in, final OutputStream out) throws IOException {
 		try {
 			int r;
@@ -291,4 +1063,37 @@ public class Radix4CorrectnessTest extends TestCase {
 		}
 
 	}
+	private static class Metrics implements Radix4Metrics {
+
+		long bytes;
+		long radixFreeBytes;
+		long chars;
+		long lineBreaks;
+		long decodedChars;
+		long whitespace;
+		long decodedBytes;
+		int rejections;
+
+		@Override
+		public void encoded(long bytes, long radixFreeBytes, long chars, long lineBreaks, long nanos) {
+			this.bytes = bytes;
+			this.radixFreeBytes = radixFreeBytes;
+			this.chars = chars;
+			this.lineBreaks = lineBreaks;
+		}
+
+		@Override
+		public void decoded(long chars, long whitespace, long bytes, long nanos) {
+			decodedChars = chars;
+			this.whitespace = whitespace;
+			decodedBytes = bytes;
+		}
+
+		@Override
+		public void rejected() {
+			rejections++;
+		}
+
+	}
+
 }